@@ -0,0 +1,101 @@
+package dev.m00nl1ght.nnLoom;
+
+/**
+ * Precision used to evaluate the activation functions of a network.
+ * All modes are implemented by the java platforms and by the OpenCL kernels. The maximum
+ * absolute errors below are measured against the double precision functions.
+ */
+public enum ActivationPrecision {
+
+    /**
+     * Double precision {@link Math#exp} and {@link Math#tanh} in java, the exp and tanh built-ins in OpenCL.
+     * Max error: 3e-8, from rounding to float only.
+     */
+    Exact,
+
+    /**
+     * Single precision formulas based on one exponential per value: sigmoid(v) = 1 / (1 + exp(-v))
+     * and tanh(v) = 1 - 2 / (exp(2v) + 1), using native_exp and native_recip in OpenCL.
+     * Max error in java: 1.8e-7 for tanh, 9e-8 for sigmoid. The accuracy of the native functions
+     * is implementation-defined in OpenCL.
+     */
+    Single,
+
+    /**
+     * Rational [9/8] approximation of tanh, derived from its continued fraction and clamped to +-1,
+     * with sigmoid(v) = 0.5 + 0.5 * tanh(v / 2). Uses only multiplications and one division.
+     * Max error: 6.5e-6 for tanh, 3.3e-6 for sigmoid.
+     */
+    Rational,
+
+    /**
+     * Linear interpolation in a table of TABLE_SIZE + 1 tanh values over [-TABLE_RANGE, TABLE_RANGE],
+     * clamped to the outermost values, with sigmoid(v) = 0.5 + 0.5 * tanh(v / 2).
+     * Max error: 6.2e-6 for tanh, 3.1e-6 for sigmoid.
+     */
+    Table;
+
+    public static final int TABLE_SIZE = 2048;
+    public static final float TABLE_RANGE = 8f;
+
+    private static final float TABLE_SCALE = TABLE_SIZE / (2f * TABLE_RANGE);
+    private static final float RATIONAL_LIMIT = 6.25f;
+
+    private static final float[] TANH_TABLE = createTable();
+
+    public float apply(Activation activation, float v) {
+        return switch (activation) {
+            case Sigmoid -> sigmoid(v);
+            case Tanh -> tanh(v);
+        };
+    }
+
+    public float sigmoid(float v) {
+        return switch (this) {
+            case Exact -> (float) ( 1 / ( 1 + Math.exp( - v ) ) );
+            case Single -> 1f / (1f + (float) Math.exp(-v));
+            case Rational -> 0.5f + 0.5f * rationalTanh(0.5f * v);
+            case Table -> 0.5f + 0.5f * tableTanh(0.5f * v);
+        };
+    }
+
+    public float tanh(float v) {
+        return switch (this) {
+            case Exact -> (float) Math.tanh(v);
+            case Single -> 1f - 2f / ((float) Math.exp(2f * v) + 1f);
+            case Rational -> rationalTanh(v);
+            case Table -> tableTanh(v);
+        };
+    }
+
+    /**
+     * Returns a copy of the table used by {@link #Table}, for upload to other platforms.
+     */
+    public static float[] getTable() {
+        return TANH_TABLE.clone();
+    }
+
+    private static float rationalTanh(float v) {
+        final var x = Math.max(-RATIONAL_LIMIT, Math.min(RATIONAL_LIMIT, v));
+        final var x2 = x * x;
+        final var p = x * (34459425f + x2 * (4729725f + x2 * (135135f + x2 * (990f + x2))));
+        final var q = 34459425f + x2 * (16216200f + x2 * (945945f + x2 * (13860f + x2 * 45f)));
+        return Math.max(-1f, Math.min(1f, p / q));
+    }
+
+    private static float tableTanh(float v) {
+        final var u = (Math.max(-TABLE_RANGE, Math.min(TABLE_RANGE, v)) + TABLE_RANGE) * TABLE_SCALE;
+        final var i = Math.min((int) u, TABLE_SIZE - 1);
+        final var a = TANH_TABLE[i];
+        return a + (TANH_TABLE[i + 1] - a) * (u - i);
+    }
+
+    private static float[] createTable() {
+        final var table = new float[TABLE_SIZE + 1];
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            table[i] = (float) Math.tanh(i / (double) TABLE_SCALE - TABLE_RANGE);
+        }
+        return table;
+    }
+
+}
@@ -4,6 +4,7 @@ import dev.m00nl1ght.nnLoom.examples.MnistExample;
 import dev.m00nl1ght.nnLoom.examples.XorExample;
 import dev.m00nl1ght.nnLoom.opencl.CLContext;
 import dev.m00nl1ght.nnLoom.opencl.CLDevice;
+import dev.m00nl1ght.nnLoom.opencl.CLDeviceType;
 import dev.m00nl1ght.clockwork.profiler.DebugProfiler;
 import dev.m00nl1ght.clockwork.profiler.DebugUtils;
 
@@ -21,48 +22,56 @@ public class Main {
         final var argPlatform = args.length > 1 ? args[1] : "opencl2d";
         final var argSeed = args.length > 2 ? args[2] : null;
 
-        final var devs = CLDevice.getAvailableDevices(CL_DEVICE_TYPE_GPU);
         final var initSeed = argSeed == null ? new Random().nextLong() : argSeed.hashCode();
+        final var context = argPlatform.startsWith("opencl") ? CLContext.create(selectDevice()) : null;
+
+        final var nnPlatform = switch (argPlatform) {
+            case "java" -> new NNPlatformJava();
+            case "java-simd" -> NNPlatformJava.createSimd();
+            case "opencl" -> new NNPlatformOpenCL(context);
+            case "opencl2d" -> new NNPlatformOpenCL2d(context);
+            default -> throw new IllegalArgumentException("Invalid platform: " + argPlatform);
+        };
+
+        nnPlatform.init();
+
+        final var profilerGroup = nnPlatform.attachDefaultProfilers().stream().findFirst().orElseThrow();
+        final var profiler = new DebugProfiler();
+        profiler.addGroup(profilerGroup);
+
+        switch (argExample) {
+            case "xor" -> XorExample.run(nnPlatform, initSeed);
+            case "mnist" -> MnistExample.run(nnPlatform, initSeed);
+            default -> throw new IllegalArgumentException("Invalid example: " + argExample);
+        }
 
-        for (CLDevice device : devs) {
-
-            System.out.println("--------------------------------------------------------------");
-            System.out.println("OpenCL Platform name: " + device.getPlatformInfo(CL_PLATFORM_NAME));
-            System.out.println("OpenCL Device name: " + device.getDeviceInfo(CL_DEVICE_NAME));
-            System.out.println("--------------------------------------------------------------");
-
-            final var context = CLContext.create(device);
-
-            final var nnPlatform = switch (argPlatform) {
-                case "java" -> new NNPlatformJava();
-                case "opencl" -> new NNPlatformOpenCL(context);
-                case "opencl2d" -> new NNPlatformOpenCL2d(context);
-                default -> throw new IllegalArgumentException("Invalid platform: " + argPlatform);
-            };
-
-            nnPlatform.init();
+        System.out.println(DebugUtils.printProfilerInfo(profiler));
 
-            final var profilerGroup = nnPlatform.attachDefaultProfilers().stream().findFirst().orElseThrow();
-            final var profiler = new DebugProfiler();
-            profiler.addGroup(profilerGroup);
+        nnPlatform.dispose();
+        if (context != null) CLContext.release();
 
-            switch (argExample) {
-                case "xor" -> XorExample.run(nnPlatform, initSeed);
-                case "mnist" -> MnistExample.run(nnPlatform, initSeed);
-                default -> throw new IllegalArgumentException("Invalid example: " + argExample);
-            }
+    }
 
-            System.out.println(DebugUtils.printProfilerInfo(profiler));
+    /**
+     * Selects the OpenCL device given by the system properties nnloom.cl.type (default, cpu, gpu, accelerator or all),
+     * nnloom.cl.platform and nnloom.cl.device (parts of the platform and device names) and nnloom.cl.index.
+     * If no type is given, matching GPUs are preferred over other devices.
+     */
+    private static CLDevice selectDevice() {
 
-            nnPlatform.dispose();
-            CLContext.release();
+        final var type = System.getProperty("nnloom.cl.type");
+        final var device = CLDevice.select(type == null ? null : CLDeviceType.of(type),
+                System.getProperty("nnloom.cl.platform"),
+                System.getProperty("nnloom.cl.device"),
+                Integer.getInteger("nnloom.cl.index", 0));
 
-            break;
+        System.out.println("--------------------------------------------------------------");
+        System.out.println("OpenCL Platform name: " + device.getPlatformInfo(CL_PLATFORM_NAME));
+        System.out.println("OpenCL Device name: " + device.getDeviceInfo(CL_DEVICE_NAME));
+        System.out.println("--------------------------------------------------------------");
 
-        }
+        return device;
 
     }
 
-
-
 }
@@ -0,0 +1,498 @@
+package dev.m00nl1ght.nnLoom;
+
+import dev.m00nl1ght.nnLoom.data.IdxFile;
+import dev.m00nl1ght.nnLoom.data.ImageAugmentation;
+import dev.m00nl1ght.nnLoom.data.ShardedDataset;
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Batch source that prepares the next batches on a background thread while the current one is being trained on.
+ * It works with a fixed ring of pre-allocated direct buffers: the loader fills free buffers in order, and each
+ * buffer returns to the ring once the consumer requests the batch after it. With two buffers, this is classic
+ * double buffering; more buffers help to absorb loading times that vary from batch to batch.
+ *
+ * The loader keeps running into the following epochs until the source is closed.
+ */
+public final class NNBatchLoader implements NNBatchSource {
+
+    /**
+     * Loads the samples of one batch, see {@link #load}.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Writes the inputs and targets of the given batch of the given epoch into the buffers, starting at
+         * position 0, and returns the number of samples written, between 1 and the batch size.
+         * For loaders without a fixed batch count, 0 may be returned to end the epoch.
+         * Called on the loader thread only, in order of epochs and batches.
+         */
+        int load(int epoch, int batch, FloatBuffer input, FloatBuffer targets) throws Exception;
+
+    }
+
+    private static final Slot END = new Slot(0, 0);
+    private static final Slot FAILED = new Slot(0, 0);
+
+    private final int inputSize;
+    private final int targetSize;
+    private final int batchSize;
+    private final int batchCount;
+    private final Loader loader;
+
+    private final BlockingQueue<Slot> free;
+    private final BlockingQueue<Slot> ready = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private volatile Throwable failure;
+    private Slot current;
+    private long waitTime;
+    private boolean closed;
+
+    /**
+     * Creates a loader for epochs of batchCount batches with up to batchSize samples each,
+     * using bufferCount buffers (at least 2), and starts loading the first batches right away.
+     * If batchCount is -1, each epoch lasts until the loader returns 0.
+     */
+    public NNBatchLoader(int inputSize, int targetSize, int batchSize, int batchCount, int bufferCount, Loader loader) {
+
+        if (inputSize <= 0 || targetSize <= 0) throw new IllegalArgumentException("Invalid sample size");
+        if (batchSize <= 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        if (batchCount <= 0 && batchCount != -1) throw new IllegalArgumentException("Invalid batch count: " + batchCount);
+        if (bufferCount < 2) throw new IllegalArgumentException("At least 2 buffers are needed: " + bufferCount);
+
+        this.inputSize = inputSize;
+        this.targetSize = targetSize;
+        this.batchSize = batchSize;
+        this.batchCount = batchCount;
+        this.loader = Objects.requireNonNull(loader);
+
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new Slot(batchSize * inputSize, batchSize * targetSize));
+        }
+
+        this.thread = new Thread(this::run, "nnLoom-batch-loader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+    }
+
+    /**
+     * Creates a loader that copies batches from the given buffers, which hold inputCount samples starting at
+     * their current positions. The samples are visited in the order given by the shuffle in each epoch,
+     * or in their stored order if it is null.
+     */
+    public static NNBatchLoader of(FloatBuffer input, FloatBuffer targets, int inputCount, int inputSize,
+                                   int targetSize, int batchSize, int bufferCount, NNShuffle shuffle) {
+
+        if (input.remaining() < inputCount * inputSize || targets.remaining() < inputCount * targetSize)
+            throw new IllegalArgumentException("Buffers hold less than " + inputCount + " samples");
+
+        final var srcInput = input.slice().asReadOnlyBuffer();
+        final var srcTargets = targets.slice().asReadOnlyBuffer();
+        final var order = new Order(inputCount, shuffle);
+
+        return new NNBatchLoader(inputSize, targetSize, batchSize, batchCount(inputCount, batchSize), bufferCount,
+                (epoch, batch, dst, dstTargets) -> {
+                    final var first = batch * batchSize;
+                    final var count = Math.min(batchSize, inputCount - first);
+                    order.forEach(epoch, first, count, (i, idx) -> {
+                        dst.put(i * inputSize, srcInput, idx * inputSize, inputSize);
+                        dstTargets.put(i * targetSize, srcTargets, idx * targetSize, targetSize);
+                    });
+                    return count;
+                });
+
+    }
+
+    public static NNBatchLoader of(FloatBuffer input, FloatBuffer targets, int inputCount, int inputSize,
+                                   int targetSize, int batchSize, int bufferCount) {
+        return of(input, targets, inputCount, inputSize, targetSize, batchSize, bufferCount, null);
+    }
+
+    /**
+     * Creates a loader that reads batches from the given IDX files, which must have the same number of samples.
+     * Integer values are divided by the given divisors, see {@link IdxFile#readFloats}. As the files are
+     * memory-mapped, only the pages of the batches currently being loaded need to be resident.
+     * The samples are visited in the order given by the shuffle in each epoch, or in their stored order if it is null.
+     */
+    public static NNBatchLoader of(IdxFile input, float inputDivisor, IdxFile targets, float targetDivisor,
+                                   int batchSize, int bufferCount, NNShuffle shuffle) {
+
+        if (input.getCount() != targets.getCount())
+            throw new IllegalArgumentException("Sample counts of inputs and targets differ ("
+                    + input.getCount() + " != " + targets.getCount() + ")");
+
+        final var count = input.getCount();
+        final var order = new Order(count, shuffle);
+
+        return new NNBatchLoader(input.getSampleSize(), targets.getSampleSize(), batchSize,
+                batchCount(count, batchSize), bufferCount, (epoch, batch, dst, dstTargets) -> {
+                    final var first = batch * batchSize;
+                    final var size = Math.min(batchSize, count - first);
+                    if (shuffle == null) {
+                        input.readFloats(first, size, inputDivisor, dst);
+                        targets.readFloats(first, size, targetDivisor, dstTargets);
+                    } else {
+                        order.forEach(epoch, first, size, (i, idx) -> {
+                            input.readFloats(idx, 1, inputDivisor, dst);
+                            targets.readFloats(idx, 1, targetDivisor, dstTargets);
+                        });
+                    }
+                    return size;
+                });
+
+    }
+
+    public static NNBatchLoader of(IdxFile input, float inputDivisor, IdxFile targets, float targetDivisor,
+                                   int batchSize, int bufferCount) {
+        return of(input, inputDivisor, targets, targetDivisor, batchSize, bufferCount, null);
+    }
+
+    /**
+     * Creates a loader that iterates over the shards of the given dataset one by one, mapping only the shard
+     * currently being read. Batches never span two shards, so the last batch of each shard may be smaller.
+     * With a shuffle, both the order of the shards and the order of the samples within each shard
+     * are permuted in each epoch. Integer values are divided by the given divisors, see {@link IdxFile#readFloats}.
+     */
+    public static NNBatchLoader of(ShardedDataset dataset, float inputDivisor, float targetDivisor,
+                                   int batchSize, int bufferCount, NNShuffle shuffle) {
+
+        if (batchSize <= 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        final var batchCount = dataset.getShards().stream()
+                .mapToLong(s -> (s.getCount() + batchSize - 1) / batchSize).sum();
+        if (batchCount == 0 || batchCount > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid number of batches: " + batchCount);
+
+        return new NNBatchLoader(dataset.getInputSize(), dataset.getTargetSize(), batchSize, (int) batchCount,
+                bufferCount, new ShardCursor(dataset, inputDivisor, targetDivisor, batchSize, shuffle));
+
+    }
+
+    /**
+     * Creates a loader that takes the batches of the given source and applies the augmentation to each input sample,
+     * spreading the samples of a batch across the threads of the given pool. The targets are passed through as they are.
+     *
+     * The distortion of each sample is seeded from the given seed, the epoch and the position of the sample
+     * within the epoch, so runs with the same seed and the same source order are reproducible.
+     * The source is read from the loader thread only and is not closed by the returned loader.
+     */
+    public static NNBatchLoader augmented(NNBatchSource source, ImageAugmentation augmentation, long seed,
+                                          ForkJoinPool pool, int bufferCount) {
+
+        final var planeSize = augmentation.getWidth() * augmentation.getHeight();
+        if (source.getInputSize() % planeSize != 0)
+            throw new IllegalArgumentException("Input size " + source.getInputSize() + " is not a multiple of the image size");
+
+        return new NNBatchLoader(source.getInputSize(), source.getTargetSize(), source.getBatchSize(), -1, bufferCount,
+                new AugmentCursor(source, augmentation, seed, Objects.requireNonNull(pool)));
+
+    }
+
+    public static NNBatchLoader augmented(NNBatchSource source, ImageAugmentation augmentation, long seed, int bufferCount) {
+        return augmented(source, augmentation, seed, ForkJoinPool.commonPool(), bufferCount);
+    }
+
+    /**
+     * Returns the number of batches needed for the given number of samples.
+     */
+    public static int batchCount(int inputCount, int batchSize) {
+        if (inputCount <= 0) throw new IllegalArgumentException("Invalid input count: " + inputCount);
+        return (inputCount + batchSize - 1) / batchSize;
+    }
+
+    private void run() {
+        try {
+            for (int epoch = 0; ; epoch++) {
+                for (int batch = 0; batchCount < 0 || batch < batchCount; batch++) {
+
+                    final var slot = free.take();
+                    slot.input.clear();
+                    slot.targets.clear();
+
+                    final var size = loader.load(epoch, batch, slot.input, slot.targets);
+                    if (size == 0 && batchCount < 0) {
+                        free.add(slot);
+                        break;
+                    }
+
+                    if (size <= 0 || size > batchSize)
+                        throw new IllegalStateException("Invalid size of batch " + batch + ": " + size);
+
+                    slot.size = size;
+                    slot.input.clear().limit(size * inputSize);
+                    slot.targets.clear().limit(size * targetSize);
+                    ready.put(slot);
+
+                }
+                ready.put(END);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Throwable t) {
+            failure = t;
+            ready.add(FAILED);
+        }
+    }
+
+    @Override
+    public Batch next() {
+
+        if (closed) throw new IllegalStateException("Batch loader is closed");
+
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+
+        final Slot slot;
+        final var sTime = System.nanoTime();
+        try {
+            slot = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+        }
+        waitTime += System.nanoTime() - sTime;
+
+        if (slot == END) return null;
+        if (slot == FAILED) {
+            ready.add(FAILED);
+            throw new IllegalStateException("Failed to load batch", failure);
+        }
+
+        current = slot;
+        return slot;
+
+    }
+
+    /**
+     * Returns the total time in milliseconds that calls to {@link #next()} have waited for batches,
+     * which is the time training was stalled by loading.
+     */
+    public long getWaitTime() {
+        return waitTime / 1_000_000;
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of batches per epoch, or -1 if it is not known in advance.
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sample order of the current epoch, only used on the loader thread.
+     */
+    private static final class Order {
+
+        private final NNShuffle shuffle;
+        private final int[] order;
+        private int epoch = -1;
+
+        private Order(int count, NNShuffle shuffle) {
+            this.shuffle = shuffle;
+            this.order = shuffle == null ? null : new int[count];
+        }
+
+        private void forEach(int epoch, int first, int count, SampleTask task) {
+            if (order != null && epoch != this.epoch) {
+                shuffle.permutation(epoch, order);
+                this.epoch = epoch;
+            }
+            for (int i = 0; i < count; i++) {
+                task.run(i, order == null ? first + i : order[first + i]);
+            }
+        }
+
+    }
+
+    /**
+     * Position in a sharded dataset, only used on the loader thread.
+     */
+    private static final class ShardCursor implements Loader {
+
+        private static final long SHARD_GAMMA = 0x9E3779B97F4A7C15L;
+
+        private final List<ShardedDataset.Shard> shards;
+        private final float inputDivisor;
+        private final float targetDivisor;
+        private final int batchSize;
+        private final NNShuffle shuffle;
+
+        private int[] shardOrder;
+        private int shardPos;
+        private IdxFile input;
+        private IdxFile targets;
+        private Order order;
+        private int offset;
+
+        private ShardCursor(ShardedDataset dataset, float inputDivisor, float targetDivisor, int batchSize, NNShuffle shuffle) {
+            this.shards = dataset.getShards();
+            this.inputDivisor = inputDivisor;
+            this.targetDivisor = targetDivisor;
+            this.batchSize = batchSize;
+            this.shuffle = shuffle;
+        }
+
+        @Override
+        public int load(int epoch, int batch, FloatBuffer dst, FloatBuffer dstTargets) throws IOException {
+
+            if (batch == 0) {
+                shardOrder = shuffle == null
+                        ? IntStream.range(0, shards.size()).toArray()
+                        : shuffle.permutation(epoch, shards.size());
+                shardPos = -1;
+                input = null;
+                targets = null;
+            }
+
+            while (input == null || offset >= input.getCount()) {
+                final var shardIdx = shardOrder[++shardPos];
+                final var shard = shards.get(shardIdx);
+                input = shard.openInput();
+                targets = shard.openTargets();
+                order = new Order(shard.getCount(), shuffle == null ? null
+                        : NNShuffle.seeded(shuffle.getSeed() + (shardIdx + 1) * SHARD_GAMMA));
+                offset = 0;
+            }
+
+            final var size = Math.min(batchSize, input.getCount() - offset);
+            if (shuffle == null) {
+                input.readFloats(offset, size, inputDivisor, dst);
+                targets.readFloats(offset, size, targetDivisor, dstTargets);
+            } else {
+                order.forEach(epoch, offset, size, (i, idx) -> {
+                    input.readFloats(idx, 1, inputDivisor, dst);
+                    targets.readFloats(idx, 1, targetDivisor, dstTargets);
+                });
+            }
+
+            offset += size;
+            return size;
+
+        }
+
+    }
+
+    /**
+     * Position in the epoch of an augmented source, only used on the loader thread.
+     */
+    private static final class AugmentCursor implements Loader {
+
+        private static final long EPOCH_GAMMA = 0x9E3779B97F4A7C15L;
+        private static final long SAMPLE_GAMMA = 0xC2B2AE3D27D4EB4FL;
+
+        private final NNBatchSource source;
+        private final ImageAugmentation augmentation;
+        private final long seed;
+        private final ForkJoinPool pool;
+        private final int channels;
+
+        private long sampleBase;
+
+        private AugmentCursor(NNBatchSource source, ImageAugmentation augmentation, long seed, ForkJoinPool pool) {
+            this.source = source;
+            this.augmentation = augmentation;
+            this.seed = seed;
+            this.pool = pool;
+            this.channels = source.getInputSize() / (augmentation.getWidth() * augmentation.getHeight());
+        }
+
+        @Override
+        public int load(int epoch, int batch, FloatBuffer dst, FloatBuffer dstTargets) {
+
+            if (batch == 0) sampleBase = 0;
+
+            final var src = source.next();
+            if (src == null) return 0;
+
+            final var size = src.size();
+            final var inputSize = source.getInputSize();
+            final var input = src.input();
+            final var epochSeed = seed + epoch * EPOCH_GAMMA;
+            final var base = sampleBase;
+
+            dstTargets.put(0, src.targets(), 0, size * source.getTargetSize());
+            pool.submit(() -> IntStream.range(0, size).parallel().forEach(i -> augmentation.apply(
+                    input, i * inputSize, dst, i * inputSize, channels, epochSeed + (base + i) * SAMPLE_GAMMA))).join();
+
+            sampleBase += size;
+            return size;
+
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface SampleTask {
+        void run(int index, int sample);
+    }
+
+    private static final class Slot implements Batch {
+
+        private final FloatBuffer input;
+        private final FloatBuffer targets;
+        private int size;
+
+        private Slot(int inputSize, int targetSize) {
+            this.input = BufferUtils.createFloatBuffer(inputSize);
+            this.targets = BufferUtils.createFloatBuffer(targetSize);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public FloatBuffer input() {
+            return input;
+        }
+
+        @Override
+        public FloatBuffer targets() {
+            return targets;
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package dev.m00nl1ght.nnLoom;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Supplies training samples batch by batch, as an alternative to passing the whole data set to train.
+ * Platforms only ever hold one batch at a time, so the data set does not have to fit into host or device memory.
+ * See {@link NNBatchLoader} for an implementation that prepares batches on a background thread.
+ */
+public interface NNBatchSource extends AutoCloseable {
+
+    /**
+     * Returns the number of input values per sample.
+     */
+    int getInputSize();
+
+    /**
+     * Returns the number of target values per sample.
+     */
+    int getTargetSize();
+
+    /**
+     * Returns the maximum number of samples in a batch.
+     */
+    int getBatchSize();
+
+    /**
+     * Returns the next batch of the current epoch, waiting for it if needed, or null once all batches
+     * of the epoch have been returned, in which case the following call starts the next epoch.
+     * The returned batch is only valid until the next call.
+     */
+    Batch next();
+
+    @Override
+    void close();
+
+    interface Batch {
+
+        /**
+         * Returns the number of samples in this batch, between 1 and the batch size of the source.
+         */
+        int size();
+
+        /**
+         * Returns the input values of the samples, from position 0 up to the limit.
+         */
+        FloatBuffer input();
+
+        /**
+         * Returns the target values of the samples, from position 0 up to the limit.
+         */
+        FloatBuffer targets();
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package dev.m00nl1ght.nnLoom;
+
+import dev.m00nl1ght.nnLoom.data.IdxFile;
+import dev.m00nl1ght.nnLoom.data.IdxType;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Input data stored as one unsigned byte per value, which the platforms dequantise
+ * to value * scale + offset only when a batch is processed. This keeps datasets such as
+ * images at a quarter of the memory and transfer size of float data.
+ */
+public final class NNByteInput {
+
+    private final ByteBuffer data;
+    private final float scale;
+    private final float offset;
+    private final float[] table;
+
+    public NNByteInput(ByteBuffer data, float scale, float offset) {
+        this.data = Objects.requireNonNull(data).slice().asReadOnlyBuffer();
+        this.scale = scale;
+        this.offset = offset;
+        this.table = new float[256];
+        for (int i = 0; i < 256; i++) table[i] = i * scale + offset;
+    }
+
+    /**
+     * Uses all samples of the given IDX file, which must contain unsigned bytes, as input.
+     */
+    public static NNByteInput of(IdxFile file, float scale, float offset) {
+        if (file.getType() != IdxType.UByte)
+            throw new IllegalArgumentException("IDX file does not contain unsigned bytes: " + file.getType());
+        return new NNByteInput(file.samples(0, file.getCount()), scale, offset);
+    }
+
+    /**
+     * Returns a read-only view of the raw values, starting at the first value.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    public int size() {
+        return data.capacity();
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public float getOffset() {
+        return offset;
+    }
+
+    /**
+     * Dequantises length values starting at the given index into dst.
+     */
+    public void get(int index, float[] dst, int dstOffset, int length) {
+        Objects.checkFromIndexSize(index, length, data.capacity());
+        Objects.checkFromIndexSize(dstOffset, length, dst.length);
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = table[data.get(index + i) & 0xFF];
+        }
+    }
+
+}
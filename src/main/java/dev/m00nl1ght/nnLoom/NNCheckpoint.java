@@ -0,0 +1,212 @@
+package dev.m00nl1ght.nnLoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Binary file format for the structure and parameters of a network.
+ *
+ * All values are little-endian. The file starts with a header holding the magic number, format version,
+ * input count, activation precision and layer count, followed by one entry per layer with its node count,
+ * edge count, activation, initialisation and the file offsets of its weights and biases. The parameters
+ * follow as raw floats, each tensor aligned to {@link #ALIGNMENT} bytes.
+ *
+ * On little-endian machines, {@link #load} maps the tensors into memory and hands the mapped regions
+ * to the layers without copying or parsing them, so the data is only paged in once it is used.
+ * The mappings are private, changes made by training are never written back to the file. If the file is not
+ * writable, it is mapped read-only instead, and each tensor is copied once a platform needs a writable buffer.
+ */
+public final class NNCheckpoint {
+
+    public static final int VERSION = 1;
+    public static final int ALIGNMENT = 64;
+
+    private static final int MAGIC = 0x4D4C4E4E; // "NNLM"
+    private static final int HEADER_SIZE = 24;
+    private static final int LAYER_SIZE = 32;
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private NNCheckpoint() {}
+
+    /**
+     * Writes the given network to a file. The data is written to a new temporary file first, which then replaces
+     * the target, so that networks currently loaded from the target remain valid and concurrent saves do not interfere.
+     */
+    public static void save(NNetwork network, Path path) throws IOException {
+
+        Objects.requireNonNull(network);
+        final var layers = network.getLayers();
+        final var header = ByteBuffer.allocate(HEADER_SIZE + LAYER_SIZE * layers.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(network.getInputCount());
+        header.putInt(network.getActivationPrecision().ordinal());
+        header.putInt(layers.size()).putInt(0);
+
+        final var offsets = new long[layers.size() * 2];
+        var pos = align(header.capacity());
+        for (int i = 0; i < layers.size(); i++) {
+            final var layer = layers.get(i);
+            offsets[2 * i] = pos;
+            pos = align(pos + 4L * layer.getWeights().size());
+            offsets[2 * i + 1] = pos;
+            pos = align(pos + 4L * layer.getBiases().size());
+            header.putInt(layer.getNodeCount()).putInt(layer.getEdgeCount());
+            header.putInt(layer.getActivation().ordinal()).putInt(layer.getInitialisation().ordinal());
+            header.putLong(offsets[2 * i]).putLong(offsets[2 * i + 1]);
+        }
+
+        final var temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+
+            try (final var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+
+                writeFully(channel, header.flip(), 0);
+
+                final var block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < layers.size(); i++) {
+                    writeTensor(channel, layers.get(i).getWeights(), offsets[2 * i], block);
+                    writeTensor(channel, layers.get(i).getBiases(), offsets[2 * i + 1], block);
+                }
+
+                channel.force(false);
+            }
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+    }
+
+    /**
+     * Loads a network from a file written by {@link #save}.
+     */
+    public static NNetwork load(Path path) throws IOException {
+
+        final var writable = Files.isWritable(path);
+        try (final var channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+
+            final var mapMode = writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+            final var fileSize = channel.size();
+            final var head = readFully(channel, 0, HEADER_SIZE);
+
+            if (head.getInt(0) != MAGIC) throw new IOException("Not a network checkpoint: " + path);
+            final var version = head.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+
+            final var inputCount = head.getInt(8);
+            final var precision = enumValue(ActivationPrecision.values(), head.getInt(12));
+            final var layerCount = head.getInt(16);
+            if (inputCount <= 0 || layerCount <= 0 || layerCount > (fileSize - HEADER_SIZE) / LAYER_SIZE)
+                throw new IOException("Invalid checkpoint header in " + path);
+
+            final var entries = readFully(channel, HEADER_SIZE, LAYER_SIZE * layerCount);
+            final var builder = NNetwork.builder(inputCount).activationPrecision(precision);
+
+            var edgeCountExpected = inputCount;
+            for (int i = 0; i < layerCount; i++) {
+
+                final var e = LAYER_SIZE * i;
+                final var nodeCount = entries.getInt(e);
+                final var edgeCount = entries.getInt(e + 4);
+                final var activation = enumValue(Activation.values(), entries.getInt(e + 8));
+                final var initialisation = enumValue(Initialisation.values(), entries.getInt(e + 12));
+
+                if (nodeCount <= 0 || edgeCount != edgeCountExpected || (long) nodeCount * edgeCount > Integer.MAX_VALUE)
+                    throw new IOException("Invalid dimensions of layer " + i + " in " + path);
+
+                final var weights = mapTensor(channel, mapMode, entries.getLong(e + 16), nodeCount * edgeCount, fileSize);
+                final var biases = mapTensor(channel, mapMode, entries.getLong(e + 24), nodeCount, fileSize);
+                builder.layer(new NNLayer(nodeCount, edgeCount, activation, initialisation, weights, biases));
+                edgeCountExpected = nodeCount;
+            }
+
+            return builder.build();
+
+        }
+
+    }
+
+    private static NNTensor mapTensor(FileChannel channel, FileChannel.MapMode mode, long offset, int size, long fileSize) throws IOException {
+
+        final var bytes = 4L * size;
+        if (offset < HEADER_SIZE || offset % ALIGNMENT != 0 || offset + bytes > fileSize)
+            throw new IOException("Invalid tensor offset " + offset + " in checkpoint");
+
+        if (size > 0 && bytes <= Integer.MAX_VALUE && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            final var mapped = channel.map(mode, offset, bytes);
+            return NNTensor.wrap(mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        }
+
+        final var tensor = new NNTensor(size);
+        final var array = tensor.array();
+        final var block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int done = 0; done < size; ) {
+            final var n = Math.min(BLOCK_SIZE / 4, size - done);
+            block.clear().limit(4 * n);
+            readFully(channel, block, offset + 4L * done);
+            block.flip().asFloatBuffer().get(array, done, n);
+            done += n;
+        }
+        return tensor;
+
+    }
+
+    private static void writeTensor(FileChannel channel, NNTensor tensor, long offset, ByteBuffer block) throws IOException {
+        final FloatBuffer data = tensor.view();
+        var pos = offset;
+        while (data.hasRemaining()) {
+            final var n = Math.min(BLOCK_SIZE / 4, data.remaining());
+            block.clear();
+            block.asFloatBuffer().put(data.slice().limit(n));
+            data.position(data.position() + n);
+            block.limit(4 * n);
+            writeFully(channel, block, pos);
+            pos += 4L * n;
+        }
+    }
+
+    private static <T extends Enum<T>> T enumValue(T[] values, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) throw new IOException("Invalid enum value in checkpoint: " + ordinal);
+        return values[ordinal];
+    }
+
+    private static long align(long pos) {
+        return (pos + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int size) throws IOException {
+        final var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, offset);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        var pos = offset;
+        while (buffer.hasRemaining()) {
+            final var n = channel.read(buffer, pos);
+            if (n < 0) throw new IOException("Unexpected end of checkpoint");
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        var pos = offset;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+}
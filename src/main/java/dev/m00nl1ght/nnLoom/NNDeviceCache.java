@@ -0,0 +1,162 @@
+package dev.m00nl1ght.nnLoom;
+
+import dev.m00nl1ght.nnLoom.opencl.CLContext;
+import org.lwjgl.BufferUtils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static dev.m00nl1ght.nnLoom.opencl.CLUtil.*;
+import static org.lwjgl.opencl.CL10.*;
+
+/**
+ * Keeps the weights and biases of networks in device memory between the calls of an OpenCL platform,
+ * so that alternating training and prediction does not move the whole model to and from the device every time.
+ *
+ * Each tensor is uploaded again only if its version changed since it was last uploaded. After training, the device
+ * copies become the {@link NNTensor.Mirror mirrors} holding the current data, and are only read back once the host
+ * actually requests the data of a tensor. Entries are released when their network is garbage collected,
+ * when {@link #release(NNetwork)} is called, or when the platform is disposed, after reading back pending updates.
+ */
+final class NNDeviceCache {
+
+    private final CLContext clContext;
+    private final long clCommandQueue;
+    private final IntBuffer errBuffer = BufferUtils.createIntBuffer(1);
+
+    private final Map<NNetwork, Entry> entries = new WeakHashMap<>();
+    private final Set<Entry> live = new HashSet<>();
+    private final ReferenceQueue<NNetwork> collected = new ReferenceQueue<>();
+
+    NNDeviceCache(CLContext clContext, long clCommandQueue) {
+        this.clContext = clContext;
+        this.clCommandQueue = clCommandQueue;
+    }
+
+    /**
+     * Returns the device buffers for the given network, creating them if there are none yet.
+     */
+    Entry get(NNetwork network) {
+        releaseCollected();
+        return entries.computeIfAbsent(network, Entry::new);
+    }
+
+    /**
+     * Reads back pending updates of the given network and releases its device buffers.
+     */
+    void release(NNetwork network) {
+        final var entry = entries.remove(network);
+        if (entry != null) entry.release();
+    }
+
+    /**
+     * Reads back all pending updates and releases all device buffers.
+     */
+    void dispose() {
+        List.copyOf(live).forEach(Entry::release);
+        entries.clear();
+    }
+
+    private void releaseCollected() {
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) entry.release();
+    }
+
+    final class Entry extends WeakReference<NNetwork> {
+
+        private final Resident[] weights;
+        private final Resident[] biases;
+
+        final long[] bfWeights;
+        final long[] bfBiases;
+
+        private boolean released;
+
+        private Entry(NNetwork network) {
+            super(network, collected);
+            live.add(this);
+            final var layers = network.getLayers();
+            this.weights = new Resident[layers.size()];
+            this.biases = new Resident[layers.size()];
+            this.bfWeights = new long[layers.size()];
+            this.bfBiases = new long[layers.size()];
+            for (int i = 0; i < layers.size(); i++) {
+                weights[i] = new Resident(layers.get(i).getWeights());
+                biases[i] = new Resident(layers.get(i).getBiases());
+                bfWeights[i] = weights[i].bf;
+                bfBiases[i] = biases[i].bf;
+            }
+        }
+
+        /**
+         * Uploads all tensors that changed since they were last uploaded.
+         */
+        void upload() {
+            for (final var resident : weights) resident.upload();
+            for (final var resident : biases) resident.upload();
+        }
+
+        /**
+         * Uploads all tensors that changed, like {@link #upload()}, and then marks the device copies as current,
+         * as training is about to update them. This also holds if training fails part way through.
+         */
+        void training() {
+            upload();
+            for (final var resident : weights) resident.modified();
+            for (final var resident : biases) resident.modified();
+        }
+
+        private void release() {
+            if (released) return;
+            released = true;
+            live.remove(this);
+            for (final var resident : weights) resident.release();
+            for (final var resident : biases) resident.release();
+        }
+
+    }
+
+    private final class Resident implements NNTensor.Mirror {
+
+        private final NNTensor tensor;
+        private final long bf;
+        private int version;
+
+        private Resident(NNTensor tensor) {
+            this.tensor = tensor;
+            this.bf = clCreateBuffer(clContext.get(), CL_MEM_READ_WRITE, tensor.size() * 4L, errBuffer);
+            checkCLError(errBuffer);
+            this.version = tensor.version() - 1;
+        }
+
+        private void upload() {
+            if (tensor.version() == version) return;
+            final var data = tensor.directView();
+            checkCLError(clEnqueueWriteBuffer(clCommandQueue, bf, true, 0, data, null, null));
+            version = tensor.version();
+        }
+
+        private void modified() {
+            version = tensor.mirrored(this);
+        }
+
+        @Override
+        public void read(FloatBuffer dst) {
+            checkCLError(clEnqueueReadBuffer(clCommandQueue, bf, true, 0, dst.limit(tensor.size()), null, null));
+        }
+
+        private void release() {
+            if (tensor.isMirroredBy(this)) tensor.sync();
+            checkCLError(clReleaseMemObject(bf));
+        }
+
+    }
+
+}
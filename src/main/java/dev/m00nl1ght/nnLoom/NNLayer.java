@@ -1,8 +1,5 @@
 package dev.m00nl1ght.nnLoom;
 
-import org.lwjgl.BufferUtils;
-
-import java.nio.FloatBuffer;
 import java.util.Objects;
 import java.util.Random;
 
@@ -12,16 +9,26 @@ public class NNLayer {
     private final int edgeCount;
     private final Activation activation;
     private final Initialisation initialisation;
-    private final FloatBuffer weights;
-    private final FloatBuffer biases;
+    private final NNTensor weights;
+    private final NNTensor biases;
 
     public NNLayer(int nodeCount, int edgeCount, Activation activation, Initialisation initialisation) {
+        this(nodeCount, edgeCount, activation, initialisation, new NNTensor(nodeCount * edgeCount), new NNTensor(nodeCount));
+    }
+
+    /**
+     * Creates a layer using the given tensors for its parameters, for example ones loaded from a checkpoint.
+     */
+    public NNLayer(int nodeCount, int edgeCount, Activation activation, Initialisation initialisation,
+                   NNTensor weights, NNTensor biases) {
+        if (weights.size() != nodeCount * edgeCount || biases.size() != nodeCount)
+            throw new IllegalArgumentException("Tensor sizes do not match the layer dimensions");
         this.nodeCount = nodeCount;
         this.edgeCount = edgeCount;
         this.activation = Objects.requireNonNull(activation);
         this.initialisation = Objects.requireNonNull(initialisation);
-        this.weights = BufferUtils.createFloatBuffer(nodeCount * edgeCount);
-        this.biases = BufferUtils.createFloatBuffer(nodeCount);
+        this.weights = weights;
+        this.biases = biases;
     }
 
     public int getNodeCount() {
@@ -32,11 +39,11 @@ public class NNLayer {
         return edgeCount;
     }
 
-    public FloatBuffer getWeights() {
+    public NNTensor getWeights() {
         return weights;
     }
 
-    public FloatBuffer getBiases() {
+    public NNTensor getBiases() {
         return biases;
     }
 
@@ -50,31 +57,28 @@ public class NNLayer {
 
     public void init(Random random) {
 
-        weights.clear();
-        biases.clear();
+        final var weights = this.weights.array();
+        final var biases = this.biases.array();
 
         switch (initialisation) {
 
             case Uniform -> {
-                for (int i = 0; i < weights.capacity(); i++)
-                    weights.put((random.nextFloat() * 2f - 1f));
-                for (int i = 0; i < biases.capacity(); i++)
-                    biases.put((random.nextFloat() * 2f - 1f));
+                for (int i = 0; i < weights.length; i++)
+                    weights[i] = (random.nextFloat() * 2f - 1f);
+                for (int i = 0; i < biases.length; i++)
+                    biases[i] = (random.nextFloat() * 2f - 1f);
             }
 
             case Xavier -> {
                 final var mul = Math.sqrt(1d / edgeCount);
-                for (int i = 0; i < weights.capacity(); i++)
-                    weights.put((float) ((random.nextDouble() * 2f - 1f) * mul));
-                for (int i = 0; i < biases.capacity(); i++)
-                    biases.put((float) ((random.nextDouble() * 2f - 1f) * mul));
+                for (int i = 0; i < weights.length; i++)
+                    weights[i] = (float) ((random.nextDouble() * 2f - 1f) * mul);
+                for (int i = 0; i < biases.length; i++)
+                    biases[i] = (float) ((random.nextDouble() * 2f - 1f) * mul);
             }
 
         }
 
-        weights.clear();
-        biases.clear();
-
     }
 
 }
@@ -2,6 +2,7 @@ package dev.m00nl1ght.nnLoom;
 
 import dev.m00nl1ght.clockwork.profiler.Profilable;
 import dev.m00nl1ght.clockwork.profiler.impl.SimpleProfilerGroup;
+import org.lwjgl.BufferUtils;
 
 import java.nio.FloatBuffer;
 
@@ -9,9 +10,70 @@ public interface NNPlatform extends Profilable<SimpleProfilerGroup> {
 
     void init();
 
-    FloatBuffer predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize);
+    /**
+     * Opens a session running the given network on this platform, see {@link NNSession}.
+     */
+    NNSession openSession(NNetwork network);
 
-    void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate);
+    /**
+     * Returns the outputs for the given inputs in a new buffer, as the buffers returned by
+     * {@link NNSession#predict(int, FloatBuffer, int)} are owned by the session, which is closed here.
+     */
+    default FloatBuffer predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize) {
+        final var output = BufferUtils.createFloatBuffer(network.getOutputCount() * inputCount);
+        try (final var session = openSession(network)) {
+            session.predict(inputCount, input, batchSize, output);
+        }
+        return output.flip();
+    }
+
+    default void predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize, FloatBuffer output) {
+        try (final var session = openSession(network)) {
+            session.predict(inputCount, input, batchSize, output);
+        }
+    }
+
+    default void predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize, float[] output, int offset) {
+        try (final var session = openSession(network)) {
+            session.predict(inputCount, input, batchSize, output, offset);
+        }
+    }
+
+    default void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+        try (final var session = openSession(network)) {
+            session.train(inputCount, input, targets, epochs, batchSize, learningRate);
+        }
+    }
+
+    default void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+        try (final var session = openSession(network)) {
+            session.train(inputCount, input, targets, epochs, batchSize, learningRate, shuffle);
+        }
+    }
+
+    default void predict(NNetwork network, int inputCount, NNByteInput input, int batchSize, FloatBuffer output) {
+        try (final var session = openSession(network)) {
+            session.predict(inputCount, input, batchSize, output);
+        }
+    }
+
+    default void train(NNetwork network, int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+        try (final var session = openSession(network)) {
+            session.train(inputCount, input, targets, epochs, batchSize, learningRate);
+        }
+    }
+
+    default void train(NNetwork network, int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+        try (final var session = openSession(network)) {
+            session.train(inputCount, input, targets, epochs, batchSize, learningRate, shuffle);
+        }
+    }
+
+    default void train(NNetwork network, NNBatchSource source, int epochs, float learningRate) {
+        try (final var session = openSession(network)) {
+            session.train(source, epochs, learningRate);
+        }
+    }
 
     float eval(FloatBuffer predicted, FloatBuffer targets, ErrorFunction function, int outputCount, int sampleCount);
 
@@ -5,14 +5,33 @@ import dev.m00nl1ght.clockwork.profiler.impl.SimpleProfilerGroup;
 import org.lwjgl.BufferUtils;
 
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NNPlatformJava implements NNPlatform {
 
+    private static final long PARALLEL_GRAIN = 1 << 14;
+
+    private static final int GEMM_TILE = 4;
+    private static final int GEMM_BLOCK_N = 64;
+    private static final int GEMM_BLOCK_K = 256;
+
+    private static final int HOGWILD_SAMPLE_INTERVAL = 64;
+
+    private final int threadCount;
+    private final ExecutorService executor;
+    private ExecutorService pool;
+
+    private final ThreadLocal<float[][]> snapshotScratch = ThreadLocal.withInitial(() -> new float[3][0]);
+
     private SimpleProfilerGroup pGroup;
     private SimpleCyclicProfilerEntry pEntryPredictSetup;
-    private SimpleCyclicProfilerEntry pEntryPredictReadResults;
     private SimpleCyclicProfilerEntry pEntryPredictFeedForward;
     private SimpleCyclicProfilerEntry pEntryTrainSetup;
     private SimpleCyclicProfilerEntry pEntryTrainFeedForward;
@@ -23,115 +42,550 @@ public class NNPlatformJava implements NNPlatform {
     private SimpleCyclicProfilerEntry pEntryBackOutRun;
     private SimpleCyclicProfilerEntry pEntryBackSetup;
     private SimpleCyclicProfilerEntry pEntryBackRun;
+    private SimpleCyclicProfilerEntry pEntryBackApplySetup;
+    private SimpleCyclicProfilerEntry pEntryBackApplyRun;
+    private SimpleCyclicProfilerEntry pEntryHogwildEpoch;
+    private SimpleCyclicProfilerEntry pEntryHogwildApply;
+    private SimpleCyclicProfilerEntry pEntryHogwildInterleaved;
+
+    public NNPlatformJava() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
 
-    @Override
-    public void init() {}
+    public NNPlatformJava(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        this.threadCount = threadCount;
+        this.executor = null;
+    }
 
-    @Override
-    public FloatBuffer predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize) {
+    /**
+     * Creates a platform running its work on the given executor, using up to threadCount tasks at once.
+     * The executor is not shut down when the platform is disposed.
+     */
+    public NNPlatformJava(ExecutorService executor, int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        this.threadCount = threadCount;
+        this.executor = Objects.requireNonNull(executor);
+    }
 
-        checkBuffer(input, inputCount * network.getInputCount());
-        input = input.asReadOnlyBuffer();
+    /**
+     * Creates a platform using the SIMD kernels of {@link NNPlatformJavaSimd} if the incubating
+     * vector API is available in the running JVM, or a scalar one otherwise.
+     */
+    public static NNPlatformJava createSimd(int threadCount) {
+        if (simdAvailable()) return new NNPlatformJavaSimd(threadCount);
+        return new NNPlatformJava(threadCount);
+    }
 
-        begin(pEntryPredictSetup);
+    public static NNPlatformJava createSimd(ExecutorService executor, int threadCount) {
+        if (simdAvailable()) return new NNPlatformJavaSimd(executor, threadCount);
+        return new NNPlatformJava(executor, threadCount);
+    }
 
-        final var vals = network.getLayers().stream().map(l -> BufferUtils.createFloatBuffer(l.getNodeCount())).toArray(FloatBuffer[]::new);
-        final var weights = network.getLayers().stream().map(NNLayer::getWeights).toArray(FloatBuffer[]::new);
-        final var biases = network.getLayers().stream().map(NNLayer::getBiases).toArray(FloatBuffer[]::new);
-        final var results = BufferUtils.createFloatBuffer(network.getOutputCount() * inputCount);
+    private static boolean simdAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                Class.forName("dev.m00nl1ght.nnLoom.NNPlatformJavaSimd");
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.out.println("Failed to load vector API kernels: " + e);
+            }
+        }
+        System.out.println("Vector API not available, using scalar java platform.");
+        return false;
+    }
 
-        end(pEntryPredictSetup);
+    public static NNPlatformJava createSimd() {
+        return createSimd(Runtime.getRuntime().availableProcessors());
+    }
 
-        final var sTime = System.currentTimeMillis();
+    @Override
+    public void init() {
+        checkInit(false);
+        pool = executor != null ? executor : new ForkJoinPool(threadCount);
+    }
 
-        for (int inputIdx = 0; inputIdx < inputCount; inputIdx++) {
-            begin(pEntryPredictFeedForward);
-            feedForward(network, inputIdx, input, vals, weights, biases);
-            end(pEntryPredictFeedForward);
+    @Override
+    public NNSession openSession(NNetwork network) {
+        checkInit(true);
+        return new Session(Objects.requireNonNull(network));
+    }
 
-            begin(pEntryPredictReadResults);
-            results.put(vals[network.getLayers().size() - 1].asReadOnlyBuffer());
-            end(pEntryPredictReadResults);
-        }
+    /**
+     * Computes the outputs for the given inputs from a snapshot, on the calling thread.
+     * Unlike sessions, this may be called from any number of threads at once without locking:
+     * the snapshot is only read, and each thread uses its own scratch buffers, which are kept
+     * between calls. The outputs are written like {@link NNSession#predict(int, FloatBuffer, int, FloatBuffer)}
+     * does. Profilers are not updated by this method.
+     */
+    public void predict(NNSnapshot snapshot, int inputCount, FloatBuffer input, int batchSize, FloatBuffer output) {
+
+        checkInit(true);
+        checkBuffer(input, inputCount * snapshot.getInputCount());
+        checkBuffer(output, inputCount * snapshot.getOutputCount());
+        checkBatchSize(batchSize);
+        if (batchSize < 0) batchSize = inputCount;
+
+        final var layers = snapshot.getLayers();
+        final var precision = snapshot.getActivationPrecision();
+        final var inCount = snapshot.getInputCount();
+        final var outCount = snapshot.getOutputCount();
+        final var maxNodes = layers.stream().mapToInt(NNSnapshot.Layer::getNodeCount).max().orElseThrow();
+        final var maxSize = Math.min(batchSize, inputCount);
+
+        // Layers alternate between two value buffers, as only the previous layer is needed.
+        final var scratch = snapshotScratch.get();
+        if (scratch[0].length < maxSize * inCount) scratch[0] = new float[maxSize * inCount];
+        if (scratch[1].length < maxSize * maxNodes) scratch[1] = new float[maxSize * maxNodes];
+        if (scratch[2].length < maxSize * maxNodes) scratch[2] = new float[maxSize * maxNodes];
+
+        final var outputOffset = output.position();
+
+        for (int bOffset = 0; bOffset < inputCount; bOffset += batchSize) {
+
+            final var bSize = Math.min(batchSize, inputCount - bOffset);
+            input.get(input.position() + bOffset * inCount, scratch[0], 0, bSize * inCount);
+
+            var pVals = scratch[0];
+            for (int layerIdx = 0; layerIdx < layers.size(); layerIdx++) {
+                final var layer = layers.get(layerIdx);
+                final var cVals = scratch[1 + (layerIdx & 1)];
+                forwardRange(layer.getActivation(), precision, 0, bSize, layer.getNodeCount(), layer.getEdgeCount(),
+                        cVals, layer.weightArray(), layer.biasArray(), pVals);
+                pVals = cVals;
+            }
 
-        final var eTime = System.currentTimeMillis();
-        System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+            output.put(outputOffset + bOffset * outCount, pVals, 0, bSize * outCount);
+
+        }
 
-        results.clear();
-        return results;
+        output.position(outputOffset + inputCount * outCount);
 
     }
 
-    @Override
-    public void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
-
+    /**
+     * Trains the network with lock-free asynchronous SGD (Hogwild). Every epoch, the samples are split
+     * into one contiguous range per worker, and each worker runs per-sample forward and backward passes
+     * over its range, applying its updates directly to the shared weights without any synchronisation.
+     * Updates of different workers may therefore overwrite each other, which is tolerated by design.
+     *
+     * The worker count is capped to the thread count of the platform. If the hogwild_apply or hogwild_interleaved
+     * profiler entries are attached, every {@value #HOGWILD_SAMPLE_INTERVAL}th sample of each worker is measured,
+     * and per epoch and worker, the average time in ns spent applying an update and the estimated number of updates
+     * by other workers that landed between reading the weights for a sample and writing its update are recorded.
+     * Workers only touch the shared update counter for these samples, advancing it by the interval each time.
+     */
+    public void trainHogwild(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets,
+                             int epochs, float learningRate, int workerCount) {
+
+        checkInit(true);
         checkBuffer(input, inputCount * network.getInputCount());
         checkBuffer(targets, inputCount * network.getOutputCount());
-        input = input.asReadOnlyBuffer();
-        targets = targets.asReadOnlyBuffer();
+        if (workerCount <= 0) throw new IllegalArgumentException("Invalid worker count: " + workerCount);
 
         begin(pEntryTrainSetup);
 
-        final var vals = network.getLayers().stream().map(l -> BufferUtils.createFloatBuffer(l.getNodeCount())).toArray(FloatBuffer[]::new);
-        final var deltas = network.getLayers().stream().map(l -> BufferUtils.createFloatBuffer(l.getNodeCount())).toArray(FloatBuffer[]::new);
-        final var weights = network.getLayers().stream().map(NNLayer::getWeights).toArray(FloatBuffer[]::new);
-        final var biases = network.getLayers().stream().map(NNLayer::getBiases).toArray(FloatBuffer[]::new);
+        final var workers = Math.max(1, Math.min(Math.min(workerCount, threadCount), inputCount));
+        final var workspaces = new Workspace[workers];
+        for (int i = 0; i < workers; i++) workspaces[i] = new Workspace(network, 1, true);
+
+        final var weights = network.getLayers().stream().map(l -> l.getWeights().array()).toArray(float[][]::new);
+        final var biases = network.getLayers().stream().map(l -> l.getBiases().array()).toArray(float[][]::new);
+        final var inputView = input.slice().asReadOnlyBuffer();
+        final var targetsView = targets.slice().asReadOnlyBuffer();
+        final var profiled = pEntryHogwildApply != null || pEntryHogwildInterleaved != null;
+        final var updates = profiled ? new AtomicLong() : null;
+        final var applyTime = new long[workers];
+        final var interleaved = new long[workers];
 
         end(pEntryTrainSetup);
 
         final var sTime = System.currentTimeMillis();
 
         for (int e = 0; e < epochs; e++) {
-            for (int inputIdx = 0; inputIdx < inputCount; inputIdx++) {
-                begin(pEntryTrainFeedForward);
-                feedForward(network, inputIdx, input, vals, weights, biases);
-                end(pEntryTrainFeedForward);
-
-                begin(pEntryTrainBackProp);
-                backProp(network, inputIdx, input, targets, vals, deltas, weights, biases, learningRate);
-                end(pEntryTrainBackProp);
+
+            begin(pEntryHogwildEpoch);
+
+            runPartitioned(workers, inputCount, (worker, from, to) -> hogwildRange(network, workspaces[worker],
+                    from, to, inputView, targetsView, weights, biases, learningRate, updates, worker, applyTime, interleaved));
+
+            end(pEntryHogwildEpoch);
+
+            for (int w = 0; w < workers; w++) {
+                if (pEntryHogwildApply != null) pEntryHogwildApply.put(applyTime[w]);
+                if (pEntryHogwildInterleaved != null) pEntryHogwildInterleaved.put(interleaved[w]);
             }
+
         }
 
         final var eTime = System.currentTimeMillis();
-        System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+        System.out.println("Completed " + epochs + " hogwild epochs with " + workers + " workers using "
+                + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+    }
+
+    private void hogwildRange(NNetwork network, Workspace ws, int from, int to, FloatBuffer input, FloatBuffer targets,
+                              float[][] weights, float[][] biases, float learningRate, AtomicLong updates,
+                              int worker, long[] applyTime, long[] interleaved) {
+
+        final var layers = network.getLayers();
+        final var precision = network.getActivationPrecision();
+        final var inCount = network.getInputCount();
+        final var outCount = network.getOutputCount();
+        final var last = layers.size() - 1;
+
+        var wApplyTime = 0L;
+        var wInterleaved = 0L;
+        var wSampled = 0;
+
+        for (int j = from; j < to; j++) {
+
+            input.get(j * inCount, ws.input, 0, inCount);
+            targets.get(j * outCount, ws.targets, 0, outCount);
+            final var sampled = updates != null && (j - from) % HOGWILD_SAMPLE_INTERVAL == 0;
+            final var seen = sampled ? updates.get() : 0L;
+
+            for (int layerIdx = 0; layerIdx <= last; layerIdx++) {
+                final var layer = layers.get(layerIdx);
+                final var pVals = layerIdx == 0 ? ws.input : ws.vals[layerIdx - 1];
+                forwardRange(layer.getActivation(), precision, 0, 1, layer.getNodeCount(), layer.getEdgeCount(),
+                        ws.vals[layerIdx], weights[layerIdx], biases[layerIdx], pVals);
+            }
+
+            final var outLayer = layers.get(last);
+            backOutRange(outLayer.getActivation(), 0, 1, outLayer.getNodeCount(), ws.vals[last], ws.deltas[last], ws.targets);
+
+            for (int layerIdx = last - 1; layerIdx >= 0; layerIdx--) {
+                final var layer = layers.get(layerIdx);
+                final var nSize = layers.get(layerIdx + 1).getNodeCount();
+                backHiddenRange(layer.getActivation(), 0, 1, layer.getNodeCount(), nSize,
+                        ws.vals[layerIdx], ws.deltas[layerIdx], ws.deltas[layerIdx + 1], weights[layerIdx + 1]);
+            }
+
+            final var aTime = sampled ? System.nanoTime() : 0L;
+
+            for (int layerIdx = last; layerIdx >= 0; layerIdx--) {
+                final var layer = layers.get(layerIdx);
+                final var pVals = layerIdx == 0 ? ws.input : ws.vals[layerIdx - 1];
+                applyRange(0, layer.getNodeCount(), 1, layer.getNodeCount(), layer.getEdgeCount(),
+                        ws.deltas[layerIdx], weights[layerIdx], biases[layerIdx], pVals, learningRate);
+            }
+
+            if (sampled) {
+                wApplyTime += System.nanoTime() - aTime;
+                wInterleaved += updates.addAndGet(HOGWILD_SAMPLE_INTERVAL) - seen - HOGWILD_SAMPLE_INTERVAL;
+                wSampled++;
+            }
+
+        }
+
+        if (updates != null) {
+            applyTime[worker] = wSampled == 0 ? 0 : wApplyTime / wSampled;
+            interleaved[worker] = wInterleaved * HOGWILD_SAMPLE_INTERVAL;
+        }
+
+    }
+
+    private final class Session implements NNSession {
+
+        private final NNetwork network;
+
+        private int capacity;
+        private float[] bInput;
+        private float[] bTargets;
+        private float[][] vals;
+        private float[][] deltas;
+        private Workspace[] workspaces = new Workspace[0];
+        private FloatBuffer results;
+
+        private boolean closed;
+
+        private Session(NNetwork network) {
+            this.network = network;
+        }
+
+        @Override
+        public FloatBuffer predict(int inputCount, FloatBuffer input, int batchSize) {
+            checkOpen();
+            final var results = reserveResults(network.getOutputCount() * inputCount);
+            predict(inputCount, input, batchSize, results);
+            return results.flip();
+        }
+
+        /**
+         * Partitions the samples into one contiguous range per worker. Each worker runs the whole
+         * network for its range in batches, using its own workspace, and writes the outputs into
+         * its slice of the output buffer, so no synchronisation is needed between the layers.
+         */
+        @Override
+        public void predict(int inputCount, FloatBuffer input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            predict(inputCount, input.slice().asReadOnlyBuffer()::get, batchSize, output);
+        }
+
+        @Override
+        public void predict(int inputCount, NNByteInput input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            predict(inputCount, input::get, batchSize, output);
+        }
+
+        private void predict(int inputCount, InputSource input, int batchSize, FloatBuffer output) {
+
+            checkBuffer(output, inputCount * network.getOutputCount());
+            checkBatchSize(batchSize);
+            if (batchSize < 0) batchSize = inputCount;
+
+            begin(pEntryPredictSetup);
+
+            final var sampleCost = network.getLayers().stream().mapToLong(l -> (long) l.getNodeCount() * l.getEdgeCount()).sum();
+            final var workers = workerCount(inputCount, sampleCost);
+            final var wBatchSize = Math.min(batchSize, (inputCount + workers - 1) / workers);
+            reserveWorkspaces(workers, wBatchSize);
+
+            final var weights = network.getLayers().stream().map(l -> l.getWeights().arrayView()).toArray(float[][]::new);
+            final var biases = network.getLayers().stream().map(l -> l.getBiases().arrayView()).toArray(float[][]::new);
+            final var outputOffset = output.position();
+
+            end(pEntryPredictSetup);
+
+            final var sTime = System.currentTimeMillis();
+
+            begin(pEntryPredictFeedForward);
+            runPartitioned(workers, inputCount, (worker, from, to) -> predictRange(workspaces[worker],
+                    from, to, wBatchSize, input, output, outputOffset, weights, biases));
+            end(pEntryPredictFeedForward);
+
+            output.position(outputOffset + inputCount * network.getOutputCount());
+
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+        }
+
+        private void predictRange(Workspace ws, int from, int to, int batchSize, InputSource input,
+                                  FloatBuffer output, int outputOffset, float[][] weights, float[][] biases) {
+
+            final var layers = network.getLayers();
+            final var precision = network.getActivationPrecision();
+            final var inCount = network.getInputCount();
+            final var outCount = network.getOutputCount();
+
+            for (int bOffset = from; bOffset < to; bOffset += batchSize) {
+
+                final var bSize = Math.min(batchSize, to - bOffset);
+                input.get(bOffset * inCount, ws.input, 0, bSize * inCount);
+
+                for (int layerIdx = 0; layerIdx < layers.size(); layerIdx++) {
+                    final var layer = layers.get(layerIdx);
+                    final var pVals = layerIdx == 0 ? ws.input : ws.vals[layerIdx - 1];
+                    forwardRange(layer.getActivation(), precision, 0, bSize, layer.getNodeCount(), layer.getEdgeCount(),
+                            ws.vals[layerIdx], weights[layerIdx], biases[layerIdx], pVals);
+                }
+
+                output.put(outputOffset + bOffset * outCount, ws.vals[layers.size() - 1], 0, bSize * outCount);
+
+            }
+
+        }
+
+        @Override
+        public void train(int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            train(inputCount, input.slice().asReadOnlyBuffer()::get, targets, epochs, batchSize, learningRate, shuffle);
+        }
+
+        @Override
+        public void train(int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            train(inputCount, input::get, targets, epochs, batchSize, learningRate, shuffle);
+        }
+
+        /**
+         * With a shuffle, the samples of each batch are gathered one by one through the permutation of the epoch.
+         */
+        private void train(int inputCount, InputSource input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+
+            checkBuffer(targets, inputCount * network.getOutputCount());
+            checkBatchSize(batchSize);
+            if (batchSize < 0) batchSize = inputCount;
+            final InputSource targetSource = targets.slice().asReadOnlyBuffer()::get;
+            final var order = shuffle == null ? null : new int[inputCount];
+
+            begin(pEntryTrainSetup);
+
+            reserve(batchSize);
+            final var weights = network.getLayers().stream().map(l -> l.getWeights().array()).toArray(float[][]::new);
+            final var biases = network.getLayers().stream().map(l -> l.getBiases().array()).toArray(float[][]::new);
+
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+
+            for (int e = 0; e < epochs; e++) {
+
+                if (order != null) shuffle.permutation(e, order);
+
+                var bNum = 0;
+                var bRemaining = inputCount;
+                while (bRemaining > 0) {
+
+                    final var bSize = Math.min(batchSize, bRemaining);
+                    final var bOffset = bNum * batchSize;
+
+                    begin(pEntryTrainFeedForward);
+                    gather(input, order, bOffset, bSize, network.getInputCount(), bInput);
+                    feedForward(network, bInput, bSize, vals, weights, biases);
+                    end(pEntryTrainFeedForward);
+
+                    begin(pEntryTrainBackProp);
+                    gather(targetSource, order, bOffset, bSize, network.getOutputCount(), bTargets);
+                    backProp(network, bInput, bTargets, bSize, vals, deltas, weights, biases, learningRate);
+                    end(pEntryTrainBackProp);
+
+                    bRemaining -= bSize;
+                    bNum++;
+
+                }
+
+            }
+
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+        }
+
+        @Override
+        public void train(NNBatchSource source, int epochs, float learningRate) {
+
+            checkOpen();
+            checkSource(source, network);
+
+            begin(pEntryTrainSetup);
+
+            reserve(source.getBatchSize());
+            final var weights = network.getLayers().stream().map(l -> l.getWeights().array()).toArray(float[][]::new);
+            final var biases = network.getLayers().stream().map(l -> l.getBiases().array()).toArray(float[][]::new);
+
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+            var inputCount = 0;
+
+            for (int e = 0; e < epochs; e++) {
+
+                NNBatchSource.Batch batch;
+                while ((batch = source.next()) != null) {
+
+                    final var bSize = batch.size();
+
+                    begin(pEntryTrainFeedForward);
+                    batch.input().get(0, bInput, 0, bSize * network.getInputCount());
+                    feedForward(network, bInput, bSize, vals, weights, biases);
+                    end(pEntryTrainFeedForward);
+
+                    begin(pEntryTrainBackProp);
+                    batch.targets().get(0, bTargets, 0, bSize * network.getOutputCount());
+                    backProp(network, bInput, bTargets, bSize, vals, deltas, weights, biases, learningRate);
+                    end(pEntryTrainBackProp);
+
+                    if (e == 0) inputCount += bSize;
+
+                }
+
+            }
+
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+        }
+
+        /**
+         * Makes sure the training workspace can hold batches of the given size, growing it if needed.
+         */
+        private void reserve(int batchSize) {
+            if (batchSize > capacity) {
+                capacity = batchSize;
+                bInput = new float[capacity * network.getInputCount()];
+                bTargets = new float[capacity * network.getOutputCount()];
+                vals = createArrays(network, capacity);
+                deltas = createArrays(network, capacity);
+            }
+        }
+
+        private void reserveWorkspaces(int count, int batchSize) {
+            if (workspaces.length < count) {
+                workspaces = Arrays.copyOf(workspaces, count);
+            }
+            for (int i = 0; i < count; i++) {
+                if (workspaces[i] == null || workspaces[i].capacity < batchSize) {
+                    workspaces[i] = new Workspace(network, batchSize, false);
+                }
+            }
+        }
+
+        private FloatBuffer reserveResults(int size) {
+            if (results == null || results.capacity() < size) {
+                results = BufferUtils.createFloatBuffer(size);
+            }
+            return results.clear().limit(size);
+        }
+
+        private void checkOpen() {
+            if (closed) throw new IllegalStateException("Session is closed");
+            checkInit(true);
+        }
+
+        @Override
+        public NNetwork getNetwork() {
+            return network;
+        }
+
+        @Override
+        public NNPlatform getPlatform() {
+            return NNPlatformJava.this;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            bInput = null;
+            bTargets = null;
+            vals = null;
+            deltas = null;
+            workspaces = null;
+        }
 
     }
 
-    private void feedForward(NNetwork network, int inputIdx, FloatBuffer input, FloatBuffer[] vals,
-                             FloatBuffer[] weights, FloatBuffer[] biases) {
+    private void feedForward(NNetwork network, float[] input, int size,
+                             float[][] vals, float[][] weights, float[][] biases) {
 
         final var layers = network.getLayers();
+        final var precision = network.getActivationPrecision();
+
         for (int layerIdx = 0; layerIdx < layers.size(); layerIdx++) {
 
             begin(pEntryForwardSetup);
 
             final var layer = layers.get(layerIdx);
+            final var activation = layer.getActivation();
             final var cSize = layer.getNodeCount();
             final var pSize = layer.getEdgeCount();
             final var cVals = vals[layerIdx];
             final var cWeights = weights[layerIdx];
             final var cBiases = biases[layerIdx];
             final var pVals = layerIdx == 0 ? input : vals[layerIdx - 1];
-            final var pOffset = layerIdx == 0 ? inputIdx * network.getInputCount() : 0;
 
             end(pEntryForwardSetup);
 
             begin(pEntryForwardRun);
 
-            for (int c = 0; c < cSize; c++) {
-
-                var v = cBiases.get(c);
-
-                for (int p = 0; p < pSize; p++) {
-                    v += pVals.get(p + pOffset) * cWeights.get(c * pSize + p);
-                }
-
-                cVals.put(c, (float) switch (layer.getActivation()) {
-                    case Sigmoid -> ( 1 / ( 1 + Math.exp( - v ) ) );
-                    case Tanh -> Math.tanh(v);
-                });
-            }
+            runParallel(size, (long) cSize * pSize, (from, to) ->
+                    forwardRange(activation, precision, from, to, cSize, pSize, cVals, cWeights, cBiases, pVals));
 
             end(pEntryForwardRun);
 
@@ -139,8 +593,8 @@ public class NNPlatformJava implements NNPlatform {
 
     }
 
-    private void backProp(NNetwork network, int inputIdx, FloatBuffer input, FloatBuffer targets, FloatBuffer[] vals,
-                          FloatBuffer[] deltas, FloatBuffer[] weights, FloatBuffer[] biases, float learningRate) {
+    private void backProp(NNetwork network, float[] input, float[] targets, int size, float[][] vals,
+                          float[][] deltas, float[][] weights, float[][] biases, float learningRate) {
 
         final var layers = network.getLayers();
 
@@ -149,38 +603,17 @@ public class NNPlatformJava implements NNPlatform {
 
             final var layerIdx = layers.size() - 1;
             final var layer = layers.get(layerIdx);
+            final var activation = layer.getActivation();
             final var cSize = layer.getNodeCount();
-            final var pSize = layer.getEdgeCount();
             final var cVals = vals[layerIdx];
             final var cDeltas = deltas[layerIdx];
-            final var cWeights = weights[layerIdx];
-            final var cBiases = biases[layerIdx];
-            final var pVals = layerIdx == 0 ? input : vals[layerIdx - 1];
-            final var pOffset = layerIdx == 0 ? inputIdx * network.getInputCount() : 0;
-            final var tOffset = inputIdx * layer.getNodeCount();
 
             end(pEntryBackOutSetup);
 
             begin(pEntryBackOutRun);
 
-            for (int c = 0; c < cSize; c++) {
-
-                final var v = cVals.get(c);
-                final var error = targets.get(c + tOffset) - v;
-
-                final var delta = switch (layer.getActivation()) {
-                    case Sigmoid -> error * ( v * ( 1 - v ) );
-                    case Tanh -> error * ( 1 - v * v );
-                };
-
-                cDeltas.put(c, delta);
-                cBiases.put(c, cBiases.get(c) + delta * learningRate);
-
-                for (int p = 0; p < pSize; p++) {
-                    final var idx = c * pSize + p;
-                    cWeights.put(idx, cWeights.get(idx) + learningRate * delta * pVals.get(p + pOffset));
-                }
-            }
+            runParallel(size, cSize, (from, to) ->
+                    backOutRange(activation, from, to, cSize, cVals, cDeltas, targets));
 
             end(pEntryBackOutRun);
 
@@ -191,14 +624,10 @@ public class NNPlatformJava implements NNPlatform {
             begin(pEntryBackSetup);
 
             final var layer = layers.get(layerIdx);
+            final var activation = layer.getActivation();
             final var cSize = layer.getNodeCount();
-            final var pSize = layer.getEdgeCount();
             final var cVals = vals[layerIdx];
             final var cDeltas = deltas[layerIdx];
-            final var cWeights = weights[layerIdx];
-            final var cBiases = biases[layerIdx];
-            final var pVals = layerIdx == 0 ? input : vals[layerIdx - 1];
-            final var pOffset = layerIdx == 0 ? inputIdx * network.getInputCount() : 0;
             final var nSize = layers.get(layerIdx + 1).getNodeCount();
             final var nDeltas = deltas[layerIdx + 1];
             final var nWeights = weights[layerIdx + 1];
@@ -207,33 +636,323 @@ public class NNPlatformJava implements NNPlatform {
 
             begin(pEntryBackRun);
 
+            runParallel(size, (long) cSize * nSize, (from, to) ->
+                    backHiddenRange(activation, from, to, cSize, nSize, cVals, cDeltas, nDeltas, nWeights));
+
+            end(pEntryBackRun);
+
+        }
+
+        // Deltas of the whole batch are summed into one update per layer. Each task owns a
+        // range of nodes, so it is the only writer to their weight rows and biases.
+        for (int layerIdx = layers.size() - 1; layerIdx >= 0; layerIdx--) {
+
+            begin(pEntryBackApplySetup);
+
+            final var layer = layers.get(layerIdx);
+            final var cSize = layer.getNodeCount();
+            final var pSize = layer.getEdgeCount();
+            final var cDeltas = deltas[layerIdx];
+            final var cWeights = weights[layerIdx];
+            final var cBiases = biases[layerIdx];
+            final var pVals = layerIdx == 0 ? input : vals[layerIdx - 1];
+
+            end(pEntryBackApplySetup);
+
+            begin(pEntryBackApplyRun);
+
+            runParallel(cSize, (long) pSize * size, (from, to) ->
+                    applyRange(from, to, size, cSize, pSize, cDeltas, cWeights, cBiases, pVals, learningRate));
+
+            end(pEntryBackApplyRun);
+
+        }
+
+    }
+
+    /**
+     * Computes the deltas of the output layer for samples [from, to).
+     */
+    protected void backOutRange(Activation activation, int from, int to, int cSize,
+                                float[] cVals, float[] cDeltas, float[] targets) {
+
+        for (int j = from; j < to; j++) {
+            for (int c = 0; c < cSize; c++) {
+
+                final var cj = c + j * cSize;
+                final var v = cVals[cj];
+                final var error = targets[cj] - v;
+
+                cDeltas[cj] = switch (activation) {
+                    case Sigmoid -> error * ( v * ( 1 - v ) );
+                    case Tanh -> error * ( 1 - v * v );
+                };
+            }
+        }
+
+    }
+
+    /**
+     * Computes the deltas of a hidden layer for samples [from, to) from the deltas of the next layer.
+     */
+    protected void backHiddenRange(Activation activation, int from, int to, int cSize, int nSize,
+                                   float[] cVals, float[] cDeltas, float[] nDeltas, float[] nWeights) {
+
+        for (int j = from; j < to; j++) {
             for (int c = 0; c < cSize; c++) {
 
-                final var v = cVals.get(c);
+                final var cj = c + j * cSize;
+                final var v = cVals[cj];
 
                 var error = 0f;
                 for (int n = 0; n < nSize; n++) {
-                    error += nDeltas.get(n) * nWeights.get(n * nSize + c);
+                    error += nDeltas[n + j * nSize] * nWeights[n * cSize + c];
                 }
 
-                final var delta = switch (layer.getActivation()) {
+                cDeltas[cj] = switch (activation) {
                     case Sigmoid -> error * ( v * ( 1 - v ) );
                     case Tanh -> error * ( 1 - v * v );
                 };
+            }
+        }
+
+    }
+
+    /**
+     * Applies the summed deltas of the first {@code size} samples to the weights and biases of nodes [from, to).
+     */
+    protected void applyRange(int from, int to, int size, int cSize, int pSize, float[] cDeltas,
+                              float[] cWeights, float[] cBiases, float[] pVals, float learningRate) {
+
+        for (int c = from; c < to; c++) {
+
+            var bias = cBiases[c];
+
+            for (int j = 0; j < size; j++) {
 
-                cDeltas.put(c, delta);
-                cBiases.put(c, cBiases.get(c) + delta * learningRate);
+                final var delta = cDeltas[c + j * cSize];
+                bias += delta * learningRate;
 
                 for (int p = 0; p < pSize; p++) {
-                    final var idx = c * pSize + p;
-                    cWeights.put(idx, cWeights.get(idx) + learningRate * delta * pVals.get(p + pOffset));
+                    cWeights[c * pSize + p] += learningRate * delta * pVals[p + j * pSize];
                 }
             }
 
-            end(pEntryBackRun);
+            cBiases[c] = bias;
+        }
+
+    }
+
+    /**
+     * Computes the values of samples [from, to) for one layer as the matrix product of the
+     * previous layer values (samples x pSize) and the transposed weights (pSize x cSize).
+     * The weights are walked in blocks of GEMM_BLOCK_N rows and GEMM_BLOCK_K columns so that
+     * a block stays in cache while it is reused for every sample, and each block is computed
+     * in GEMM_TILE x GEMM_TILE register tiles. The bias is added when the first K block starts
+     * a value, the activation is applied when the last K block finishes it.
+     */
+    protected void forwardRange(Activation activation, ActivationPrecision precision, int from, int to,
+                                int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        for (int c0 = 0; c0 < cSize; c0 += GEMM_BLOCK_N) {
+            final var c1 = Math.min(c0 + GEMM_BLOCK_N, cSize);
+
+            for (int p0 = 0; p0 < pSize; p0 += GEMM_BLOCK_K) {
+                final var p1 = Math.min(p0 + GEMM_BLOCK_K, pSize);
+                final var act = p1 == pSize ? activation : null;
+
+                var j = from;
+                for (; j + GEMM_TILE <= to; j += GEMM_TILE) {
+                    var c = c0;
+                    for (; c + GEMM_TILE <= c1; c += GEMM_TILE) {
+                        forwardTile(act, precision, j, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                    }
+                    for (; c < c1; c++) {
+                        for (int jt = j; jt < j + GEMM_TILE; jt++) {
+                            forwardSingle(act, precision, jt, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                        }
+                    }
+                }
+
+                for (; j < to; j++) {
+                    for (int c = c0; c < c1; c++) {
+                        forwardSingle(act, precision, j, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                    }
+                }
+            }
+        }
+
+    }
+
+    private static void forwardTile(Activation act, ActivationPrecision precision, int j, int c, int p0, int p1,
+                                    int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        final var a0 = j * pSize;
+        final var a1 = a0 + pSize;
+        final var a2 = a1 + pSize;
+        final var a3 = a2 + pSize;
+        final var w0 = c * pSize;
+        final var w1 = w0 + pSize;
+        final var w2 = w1 + pSize;
+        final var w3 = w2 + pSize;
+        final var o0 = c + j * cSize;
+        final var o1 = o0 + cSize;
+        final var o2 = o1 + cSize;
+        final var o3 = o2 + cSize;
+
+        float v00, v01, v02, v03, v10, v11, v12, v13, v20, v21, v22, v23, v30, v31, v32, v33;
+
+        if (p0 == 0) {
+            v00 = v10 = v20 = v30 = cBiases[c];
+            v01 = v11 = v21 = v31 = cBiases[c + 1];
+            v02 = v12 = v22 = v32 = cBiases[c + 2];
+            v03 = v13 = v23 = v33 = cBiases[c + 3];
+        } else {
+            v00 = cVals[o0]; v01 = cVals[o0 + 1]; v02 = cVals[o0 + 2]; v03 = cVals[o0 + 3];
+            v10 = cVals[o1]; v11 = cVals[o1 + 1]; v12 = cVals[o1 + 2]; v13 = cVals[o1 + 3];
+            v20 = cVals[o2]; v21 = cVals[o2 + 1]; v22 = cVals[o2 + 2]; v23 = cVals[o2 + 3];
+            v30 = cVals[o3]; v31 = cVals[o3 + 1]; v32 = cVals[o3 + 2]; v33 = cVals[o3 + 3];
+        }
+
+        for (int p = p0; p < p1; p++) {
+
+            final var x0 = pVals[a0 + p];
+            final var x1 = pVals[a1 + p];
+            final var x2 = pVals[a2 + p];
+            final var x3 = pVals[a3 + p];
+            final var y0 = cWeights[w0 + p];
+            final var y1 = cWeights[w1 + p];
+            final var y2 = cWeights[w2 + p];
+            final var y3 = cWeights[w3 + p];
+
+            v00 += x0 * y0; v01 += x0 * y1; v02 += x0 * y2; v03 += x0 * y3;
+            v10 += x1 * y0; v11 += x1 * y1; v12 += x1 * y2; v13 += x1 * y3;
+            v20 += x2 * y0; v21 += x2 * y1; v22 += x2 * y2; v23 += x2 * y3;
+            v30 += x3 * y0; v31 += x3 * y1; v32 += x3 * y2; v33 += x3 * y3;
+        }
+
+        cVals[o0] = activate(act, precision, v00); cVals[o0 + 1] = activate(act, precision, v01);
+        cVals[o0 + 2] = activate(act, precision, v02); cVals[o0 + 3] = activate(act, precision, v03);
+        cVals[o1] = activate(act, precision, v10); cVals[o1 + 1] = activate(act, precision, v11);
+        cVals[o1 + 2] = activate(act, precision, v12); cVals[o1 + 3] = activate(act, precision, v13);
+        cVals[o2] = activate(act, precision, v20); cVals[o2 + 1] = activate(act, precision, v21);
+        cVals[o2 + 2] = activate(act, precision, v22); cVals[o2 + 3] = activate(act, precision, v23);
+        cVals[o3] = activate(act, precision, v30); cVals[o3 + 1] = activate(act, precision, v31);
+        cVals[o3 + 2] = activate(act, precision, v32); cVals[o3 + 3] = activate(act, precision, v33);
+
+    }
+
+    private static void forwardSingle(Activation act, ActivationPrecision precision, int j, int c, int p0, int p1,
+                                      int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        final var cj = c + j * cSize;
+        var v = p0 == 0 ? cBiases[c] : cVals[cj];
+
+        for (int p = p0; p < p1; p++) {
+            v += pVals[p + j * pSize] * cWeights[c * pSize + p];
+        }
+
+        cVals[cj] = activate(act, precision, v);
+
+    }
+
+    /**
+     * Applies the given activation function, or returns the value unchanged if it is null.
+     */
+    protected static float activate(Activation activation, ActivationPrecision precision, float v) {
+        return activation == null ? v : precision.apply(activation, v);
+    }
+
+    /**
+     * Splits the range [0, itemCount) into contiguous chunks and runs them on the pool,
+     * using the calling thread for the last chunk. Small workloads run on the calling thread only.
+     */
+    private void runParallel(int itemCount, long itemCost, RangeTask task) {
+        runPartitioned(workerCount(itemCount, itemCost), itemCount, (worker, from, to) -> task.run(from, to));
+    }
+
+    /**
+     * Returns how many workers to split the given number of items into, so that each one
+     * gets at least PARALLEL_GRAIN units of work.
+     */
+    private int workerCount(int itemCount, long itemCost) {
+        return (int) Math.max(1, Math.min(Math.min(threadCount, itemCount), itemCount * itemCost / PARALLEL_GRAIN));
+    }
+
+    private void runPartitioned(int workers, int itemCount, PartitionTask task) {
+
+        if (workers <= 1) {
+            task.run(0, 0, itemCount);
+            return;
+        }
 
+        final var tasks = new Future<?>[workers - 1];
+        for (int w = 0; w < workers - 1; w++) {
+            final var worker = w;
+            final var from = (int) ((long) itemCount * w / workers);
+            final var to = (int) ((long) itemCount * (w + 1) / workers);
+            tasks[w] = pool.submit(() -> task.run(worker, from, to));
         }
 
+        task.run(workers - 1, (int) ((long) itemCount * (workers - 1) / workers), itemCount);
+        for (final var t : tasks) await(t);
+
+    }
+
+    private static void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for worker", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error r) throw r;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static float[][] createArrays(NNetwork network, int sizeMul) {
+        return network.getLayers().stream()
+                .map(l -> new float[l.getNodeCount() * sizeMul])
+                .toArray(float[][]::new);
+    }
+
+    private void checkInit(boolean inited) {
+        if ((pool == null) == inited) throw new IllegalStateException();
+    }
+
+    private void checkInput(NNByteInput input, int expectedSize) {
+        if (input.size() < expectedSize) {
+            throw new IllegalArgumentException("Size of input data not as expected ("
+                    + input.size() + " != " + expectedSize + ")");
+        }
+    }
+
+    /**
+     * Copies count samples of the given size into dst, starting at sample first of the given order,
+     * or of the stored order if it is null.
+     */
+    private static void gather(InputSource src, int[] order, int first, int count, int sampleSize, float[] dst) {
+        if (order == null) {
+            src.get(first * sampleSize, dst, 0, count * sampleSize);
+        } else {
+            for (int i = 0; i < count; i++) {
+                src.get(order[first + i] * sampleSize, dst, i * sampleSize, sampleSize);
+            }
+        }
+    }
+
+    private void checkSource(NNBatchSource source, NNetwork network) {
+        if (source.getInputSize() != network.getInputCount() || source.getTargetSize() != network.getOutputCount()) {
+            throw new IllegalArgumentException("Sample sizes of batch source do not match the network ("
+                    + source.getInputSize() + "/" + source.getTargetSize() + " != "
+                    + network.getInputCount() + "/" + network.getOutputCount() + ")");
+        }
+    }
+
+    private void checkBatchSize(int batchSize) {
+        if (batchSize == 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
     }
 
     private void checkBuffer(FloatBuffer buffer, int expectedSize) {
@@ -278,13 +997,56 @@ public class NNPlatformJava implements NNPlatform {
     }
 
     @Override
-    public void dispose() {}
+    public void dispose() {
+        checkInit(true);
+        if (pool != executor) pool.shutdown();
+        pool = null;
+    }
+
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Reads length input values starting at the given index, converted to floats if needed.
+     */
+    @FunctionalInterface
+    private interface InputSource {
+        void get(int index, float[] dst, int offset, int length);
+    }
+
+    @FunctionalInterface
+    private interface PartitionTask {
+        void run(int worker, int from, int to);
+    }
+
+    /**
+     * Scratch buffers for running the network on batches of up to capacity samples.
+     * The targets and deltas are only allocated for workspaces used in training.
+     */
+    private static final class Workspace {
+
+        private final int capacity;
+        private final float[] input;
+        private final float[] targets;
+        private final float[][] vals;
+        private final float[][] deltas;
+
+        private Workspace(NNetwork network, int capacity, boolean training) {
+            this.capacity = capacity;
+            this.input = new float[capacity * network.getInputCount()];
+            this.targets = training ? new float[capacity * network.getOutputCount()] : null;
+            this.vals = createArrays(network, capacity);
+            this.deltas = training ? createArrays(network, capacity) : null;
+        }
+
+    }
 
     @Override
     public void attachProfiler(SimpleProfilerGroup profilerGroup) {
         this.pGroup = Objects.requireNonNull(profilerGroup);
         this.pEntryPredictSetup = pGroup.entry("predict_setup");
-        this.pEntryPredictReadResults = pGroup.entry("predict_readResults");
         this.pEntryPredictFeedForward = pGroup.entry("predict_feedForward");
         this.pEntryTrainSetup = pGroup.entry("train_setup");
         this.pEntryTrainFeedForward = pGroup.entry("train_feedForward");
@@ -295,13 +1057,17 @@ public class NNPlatformJava implements NNPlatform {
         this.pEntryBackOutRun = pGroup.entry("backprop_out_run");
         this.pEntryBackSetup = pGroup.entry("backprop_setup");
         this.pEntryBackRun = pGroup.entry("backprop_run");
+        this.pEntryBackApplySetup = pGroup.entry("backprop_apply_setup");
+        this.pEntryBackApplyRun = pGroup.entry("backprop_apply_run");
+        this.pEntryHogwildEpoch = pGroup.entry("hogwild_epoch");
+        this.pEntryHogwildApply = pGroup.entry("hogwild_apply");
+        this.pEntryHogwildInterleaved = pGroup.entry("hogwild_interleaved");
     }
 
     @Override
     public void detachAllProfilers() {
         this.pGroup = null;
         this.pEntryPredictSetup = null;
-        this.pEntryPredictReadResults = null;
         this.pEntryPredictFeedForward = null;
         this.pEntryTrainSetup = null;
         this.pEntryTrainFeedForward = null;
@@ -312,6 +1078,11 @@ public class NNPlatformJava implements NNPlatform {
         this.pEntryBackOutRun = null;
         this.pEntryBackSetup = null;
         this.pEntryBackRun = null;
+        this.pEntryBackApplySetup = null;
+        this.pEntryBackApplyRun = null;
+        this.pEntryHogwildEpoch = null;
+        this.pEntryHogwildApply = null;
+        this.pEntryHogwildInterleaved = null;
     }
 
     @Override
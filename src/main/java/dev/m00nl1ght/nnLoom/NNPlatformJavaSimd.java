@@ -0,0 +1,295 @@
+package dev.m00nl1ght.nnLoom;
+
+import dev.m00nl1ght.clockwork.profiler.impl.SimpleProfilerGroup;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Variant of {@link NNPlatformJava} with kernels written using the incubating vector API,
+ * at the preferred vector width of the CPU. Remaining elements that do not fill a whole
+ * vector are handled by scalar loops.
+ *
+ * The jdk.incubator.vector module must be added to the JVM for this class to be usable,
+ * use {@link NNPlatformJava#createSimd(int)} to fall back to the scalar platform if it is missing.
+ */
+public class NNPlatformJavaSimd extends NNPlatformJava {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private static final int BLOCK_N = 64;
+    private static final int BLOCK_K = 512;
+
+    public NNPlatformJavaSimd() {
+        super();
+    }
+
+    public NNPlatformJavaSimd(int threadCount) {
+        super(threadCount);
+    }
+
+    public NNPlatformJavaSimd(ExecutorService executor, int threadCount) {
+        super(executor, threadCount);
+    }
+
+    /**
+     * Same blocking as the scalar GEMM, but with 2 x 4 tiles whose dot products run along
+     * the edges of the layer, so that every step is one vector FMA per value in the tile.
+     */
+    @Override
+    protected void forwardRange(Activation activation, ActivationPrecision precision, int from, int to,
+                                int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        for (int c0 = 0; c0 < cSize; c0 += BLOCK_N) {
+            final var c1 = Math.min(c0 + BLOCK_N, cSize);
+
+            for (int p0 = 0; p0 < pSize; p0 += BLOCK_K) {
+                final var p1 = Math.min(p0 + BLOCK_K, pSize);
+                final var act = p1 == pSize ? activation : null;
+
+                var j = from;
+                for (; j + 2 <= to; j += 2) {
+                    var c = c0;
+                    for (; c + 4 <= c1; c += 4) {
+                        forwardTile(act, precision, j, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                    }
+                    for (; c < c1; c++) {
+                        forwardSingle(act, precision, j, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                        forwardSingle(act, precision, j + 1, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                    }
+                }
+
+                for (; j < to; j++) {
+                    for (int c = c0; c < c1; c++) {
+                        forwardSingle(act, precision, j, c, p0, p1, cSize, pSize, cVals, cWeights, cBiases, pVals);
+                    }
+                }
+            }
+        }
+
+    }
+
+    private static void forwardTile(Activation act, ActivationPrecision precision, int j, int c, int p0, int p1,
+                                    int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        final var a0 = j * pSize;
+        final var a1 = a0 + pSize;
+        final var w0 = c * pSize;
+        final var w1 = w0 + pSize;
+        final var w2 = w1 + pSize;
+        final var w3 = w2 + pSize;
+
+        var v00 = FloatVector.zero(SPECIES);
+        var v01 = FloatVector.zero(SPECIES);
+        var v02 = FloatVector.zero(SPECIES);
+        var v03 = FloatVector.zero(SPECIES);
+        var v10 = FloatVector.zero(SPECIES);
+        var v11 = FloatVector.zero(SPECIES);
+        var v12 = FloatVector.zero(SPECIES);
+        var v13 = FloatVector.zero(SPECIES);
+
+        final var bound = p0 + SPECIES.loopBound(p1 - p0);
+        var p = p0;
+
+        for (; p < bound; p += SPECIES.length()) {
+
+            final var x0 = FloatVector.fromArray(SPECIES, pVals, a0 + p);
+            final var x1 = FloatVector.fromArray(SPECIES, pVals, a1 + p);
+            final var y0 = FloatVector.fromArray(SPECIES, cWeights, w0 + p);
+            final var y1 = FloatVector.fromArray(SPECIES, cWeights, w1 + p);
+            final var y2 = FloatVector.fromArray(SPECIES, cWeights, w2 + p);
+            final var y3 = FloatVector.fromArray(SPECIES, cWeights, w3 + p);
+
+            v00 = x0.fma(y0, v00); v01 = x0.fma(y1, v01); v02 = x0.fma(y2, v02); v03 = x0.fma(y3, v03);
+            v10 = x1.fma(y0, v10); v11 = x1.fma(y1, v11); v12 = x1.fma(y2, v12); v13 = x1.fma(y3, v13);
+        }
+
+        var s00 = v00.reduceLanes(VectorOperators.ADD);
+        var s01 = v01.reduceLanes(VectorOperators.ADD);
+        var s02 = v02.reduceLanes(VectorOperators.ADD);
+        var s03 = v03.reduceLanes(VectorOperators.ADD);
+        var s10 = v10.reduceLanes(VectorOperators.ADD);
+        var s11 = v11.reduceLanes(VectorOperators.ADD);
+        var s12 = v12.reduceLanes(VectorOperators.ADD);
+        var s13 = v13.reduceLanes(VectorOperators.ADD);
+
+        for (; p < p1; p++) {
+            final var x0 = pVals[a0 + p];
+            final var x1 = pVals[a1 + p];
+            s00 += x0 * cWeights[w0 + p]; s01 += x0 * cWeights[w1 + p];
+            s02 += x0 * cWeights[w2 + p]; s03 += x0 * cWeights[w3 + p];
+            s10 += x1 * cWeights[w0 + p]; s11 += x1 * cWeights[w1 + p];
+            s12 += x1 * cWeights[w2 + p]; s13 += x1 * cWeights[w3 + p];
+        }
+
+        final var o0 = c + j * cSize;
+        final var o1 = o0 + cSize;
+
+        if (p0 == 0) {
+            s00 += cBiases[c]; s01 += cBiases[c + 1]; s02 += cBiases[c + 2]; s03 += cBiases[c + 3];
+            s10 += cBiases[c]; s11 += cBiases[c + 1]; s12 += cBiases[c + 2]; s13 += cBiases[c + 3];
+        } else {
+            s00 += cVals[o0]; s01 += cVals[o0 + 1]; s02 += cVals[o0 + 2]; s03 += cVals[o0 + 3];
+            s10 += cVals[o1]; s11 += cVals[o1 + 1]; s12 += cVals[o1 + 2]; s13 += cVals[o1 + 3];
+        }
+
+        cVals[o0] = activate(act, precision, s00); cVals[o0 + 1] = activate(act, precision, s01);
+        cVals[o0 + 2] = activate(act, precision, s02); cVals[o0 + 3] = activate(act, precision, s03);
+        cVals[o1] = activate(act, precision, s10); cVals[o1 + 1] = activate(act, precision, s11);
+        cVals[o1 + 2] = activate(act, precision, s12); cVals[o1 + 3] = activate(act, precision, s13);
+
+    }
+
+    private static void forwardSingle(Activation act, ActivationPrecision precision, int j, int c, int p0, int p1,
+                                      int cSize, int pSize, float[] cVals, float[] cWeights, float[] cBiases, float[] pVals) {
+
+        final var a = j * pSize;
+        final var w = c * pSize;
+        final var bound = p0 + SPECIES.loopBound(p1 - p0);
+
+        var acc = FloatVector.zero(SPECIES);
+        var p = p0;
+
+        for (; p < bound; p += SPECIES.length()) {
+            final var x = FloatVector.fromArray(SPECIES, pVals, a + p);
+            final var y = FloatVector.fromArray(SPECIES, cWeights, w + p);
+            acc = x.fma(y, acc);
+        }
+
+        var v = acc.reduceLanes(VectorOperators.ADD);
+        for (; p < p1; p++) {
+            v += pVals[a + p] * cWeights[w + p];
+        }
+
+        final var cj = c + j * cSize;
+        v += p0 == 0 ? cBiases[c] : cVals[cj];
+        cVals[cj] = activate(act, precision, v);
+
+    }
+
+    @Override
+    protected void backOutRange(Activation activation, int from, int to, int cSize,
+                                float[] cVals, float[] cDeltas, float[] targets) {
+
+        final var bound = SPECIES.loopBound(cSize);
+
+        for (int j = from; j < to; j++) {
+
+            final var o = j * cSize;
+            var c = 0;
+
+            for (; c < bound; c += SPECIES.length()) {
+                final var v = FloatVector.fromArray(SPECIES, cVals, o + c);
+                final var error = FloatVector.fromArray(SPECIES, targets, o + c).sub(v);
+                derivative(activation, v).mul(error).intoArray(cDeltas, o + c);
+            }
+
+            for (; c < cSize; c++) {
+                final var v = cVals[o + c];
+                final var error = targets[o + c] - v;
+                cDeltas[o + c] = error * derivative(activation, v);
+            }
+        }
+
+    }
+
+    /**
+     * Accumulates the error of a vector of consecutive nodes at once, since the weights
+     * of the next layer are stored with the nodes of the current layer as the inner dimension.
+     */
+    @Override
+    protected void backHiddenRange(Activation activation, int from, int to, int cSize, int nSize,
+                                   float[] cVals, float[] cDeltas, float[] nDeltas, float[] nWeights) {
+
+        final var bound = SPECIES.loopBound(cSize);
+
+        for (int j = from; j < to; j++) {
+
+            final var o = j * cSize;
+            final var no = j * nSize;
+            var c = 0;
+
+            for (; c < bound; c += SPECIES.length()) {
+
+                var error = FloatVector.zero(SPECIES);
+                for (int n = 0; n < nSize; n++) {
+                    final var w = FloatVector.fromArray(SPECIES, nWeights, n * cSize + c);
+                    error = w.fma(FloatVector.broadcast(SPECIES, nDeltas[no + n]), error);
+                }
+
+                final var v = FloatVector.fromArray(SPECIES, cVals, o + c);
+                derivative(activation, v).mul(error).intoArray(cDeltas, o + c);
+            }
+
+            for (; c < cSize; c++) {
+
+                var error = 0f;
+                for (int n = 0; n < nSize; n++) {
+                    error += nDeltas[no + n] * nWeights[n * cSize + c];
+                }
+
+                cDeltas[o + c] = error * derivative(activation, cVals[o + c]);
+            }
+        }
+
+    }
+
+    @Override
+    protected void applyRange(int from, int to, int size, int cSize, int pSize, float[] cDeltas,
+                              float[] cWeights, float[] cBiases, float[] pVals, float learningRate) {
+
+        final var bound = SPECIES.loopBound(pSize);
+
+        for (int c = from; c < to; c++) {
+
+            final var w = c * pSize;
+            var bias = cBiases[c];
+
+            for (int j = 0; j < size; j++) {
+
+                final var delta = cDeltas[c + j * cSize] * learningRate;
+                final var deltaV = FloatVector.broadcast(SPECIES, delta);
+                final var a = j * pSize;
+                bias += delta;
+
+                var p = 0;
+                for (; p < bound; p += SPECIES.length()) {
+                    final var x = FloatVector.fromArray(SPECIES, pVals, a + p);
+                    x.fma(deltaV, FloatVector.fromArray(SPECIES, cWeights, w + p)).intoArray(cWeights, w + p);
+                }
+
+                for (; p < pSize; p++) {
+                    cWeights[w + p] += delta * pVals[a + p];
+                }
+            }
+
+            cBiases[c] = bias;
+        }
+
+    }
+
+    private static FloatVector derivative(Activation activation, FloatVector v) {
+        return switch (activation) {
+            case Sigmoid -> v.mul(v.neg().add(1f));
+            case Tanh -> v.mul(v).neg().add(1f);
+        };
+    }
+
+    private static float derivative(Activation activation, float v) {
+        return switch (activation) {
+            case Sigmoid -> v * ( 1 - v );
+            case Tanh -> 1 - v * v;
+        };
+    }
+
+    @Override
+    public Set<SimpleProfilerGroup> attachDefaultProfilers() {
+        final var profiler = new SimpleProfilerGroup("platform_java_simd");
+        this.attachProfiler(profiler);
+        return Set.of(profiler);
+    }
+
+}
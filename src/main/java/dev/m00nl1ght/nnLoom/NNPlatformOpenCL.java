@@ -1,6 +1,7 @@
 package dev.m00nl1ght.nnLoom;
 
 import dev.m00nl1ght.nnLoom.opencl.CLContext;
+import dev.m00nl1ght.nnLoom.opencl.CLProgramCache;
 import dev.m00nl1ght.clockwork.profiler.impl.SimpleCyclicProfilerEntry;
 import dev.m00nl1ght.clockwork.profiler.impl.SimpleProfilerGroup;
 import org.lwjgl.BufferUtils;
@@ -8,9 +9,10 @@ import org.lwjgl.PointerBuffer;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.function.ToIntFunction;
 
 import static dev.m00nl1ght.nnLoom.opencl.CLUtil.*;
@@ -20,19 +22,27 @@ import static org.lwjgl.system.MemoryUtil.*;
 public class NNPlatformOpenCL implements NNPlatform {
 
     private final CLContext clContext;
+    private final CLProgramCache programCache;
     private final IntBuffer errBuffer;
     private final PointerBuffer workSize;
+    private final PointerBuffer eventBuffer;
 
     private long clCommandQueue = -1;
     private long clProgram = -1;
+    private long clActTable = -1;
     private long[] clKernelForward;
     private long[] clKernelBackH;
     private long[] clKernelBackO;
+    private long clKernelDequantize;
+
+    private final Set<NNSession> sessions = new HashSet<>();
+    private NNDeviceCache deviceCache;
 
     private SimpleProfilerGroup pGroup;
     private SimpleCyclicProfilerEntry pEntryPredictSetup;
     private SimpleCyclicProfilerEntry pEntryPredictReadResults;
     private SimpleCyclicProfilerEntry pEntryPredictFeedForward;
+    private SimpleCyclicProfilerEntry pEntryPredictWait;
     private SimpleCyclicProfilerEntry pEntryTrainSetup;
     private SimpleCyclicProfilerEntry pEntryTrainFeedForward;
     private SimpleCyclicProfilerEntry pEntryTrainBackProp;
@@ -44,9 +54,15 @@ public class NNPlatformOpenCL implements NNPlatform {
     private SimpleCyclicProfilerEntry pEntryBackRun;
 
     public NNPlatformOpenCL(CLContext clContext) {
+        this(clContext, CLProgramCache.getDefault());
+    }
+
+    public NNPlatformOpenCL(CLContext clContext, CLProgramCache programCache) {
         this.clContext = Objects.requireNonNull(clContext);
+        this.programCache = Objects.requireNonNull(programCache);
         this.errBuffer = BufferUtils.createIntBuffer(1);
         this.workSize = BufferUtils.createPointerBuffer(1);
+        this.eventBuffer = BufferUtils.createPointerBuffer(1);
     }
 
     @Override
@@ -56,19 +72,22 @@ public class NNPlatformOpenCL implements NNPlatform {
 
         clCommandQueue = clCreateCommandQueue(clContext.get(), clContext.dev(), NULL, errBuffer);
         checkCLError(errBuffer);
+        deviceCache = new NNDeviceCache(clContext, clCommandQueue);
 
+        final var actSource = ioResourceToByteBuffer("nnActivation.cl", 1024);
         final var source = ioResourceToByteBuffer("nnPlatform.cl", 1024);
 
-        final var strings = BufferUtils.createPointerBuffer(1);
-        final var lengths = BufferUtils.createPointerBuffer(1);
+        final var buildOptions = "-DACT_TABLE_SIZE=" + ActivationPrecision.TABLE_SIZE
+                + " -DACT_TABLE_RANGE=" + ActivationPrecision.TABLE_RANGE + "f";
 
-        strings.put(0, source);
-        lengths.put(0, source.remaining());
+        clProgram = programCache.build(clContext, "nnPlatform", buildOptions, actSource, source);
 
-        clProgram = clCreateProgramWithSource(clContext.get(), strings, lengths, errBuffer);
-        checkCLError(errBuffer);
+        final var actTable = BufferUtils.createFloatBuffer(ActivationPrecision.TABLE_SIZE + 1);
+        actTable.put(0, ActivationPrecision.getTable());
+        clActTable = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, actTable);
 
-        checkCLError(clBuildProgram(clProgram, clContext.dev(), "", null, NULL));
+        clKernelDequantize = clCreateKernel(clProgram, "dequantize", errBuffer);
+        checkCLError(errBuffer);
 
         final var actCount = Activation.values().length;
         clKernelForward = new long[actCount];
@@ -91,93 +110,380 @@ public class NNPlatformOpenCL implements NNPlatform {
     }
 
     @Override
-    public FloatBuffer predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize) {
+    public NNSession openSession(NNetwork network) {
+        checkContext(true);
+        final var session = new Session(Objects.requireNonNull(network));
+        sessions.add(session);
+        return session;
+    }
 
+    /**
+     * Releases the device memory holding the weights and biases of the given network, after reading back
+     * any updates from training. They are otherwise kept between sessions until the network is garbage collected.
+     */
+    public void release(NNetwork network) {
         checkContext(true);
-        checkBuffer(input, inputCount * network.getInputCount());
+        if (sessions.stream().anyMatch(s -> s.getNetwork() == network))
+            throw new IllegalStateException("Network is still used by an open session");
+        deviceCache.release(network);
+    }
+
+    private final class Session implements NNSession {
+
+        private final NNetwork network;
+
+        private final long[] bfVals;
+        private final NNDeviceCache.Entry resident;
+        private final long[] bfWeights;
+        private final long[] bfBiases;
+        private long[] bfDeltas;
+
+        private long bfInput = -1;
+        private long bfTargets = -1;
+        private long bfStage = -1;
+        private int inputCapacity;
+        private int targetsCapacity;
+        private int stageCapacity;
+        private FloatBuffer results;
+        private final FloatBuffer[] staging = new FloatBuffer[2];
+
+        private boolean closed;
+
+        private Session(NNetwork network) {
+            this.network = network;
+            this.bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
+            this.resident = deviceCache.get(network);
+            this.bfWeights = resident.bfWeights;
+            this.bfBiases = resident.bfBiases;
+        }
 
-        begin(pEntryPredictSetup);
+        @Override
+        public FloatBuffer predict(int inputCount, FloatBuffer input, int batchSize) {
+            checkOpen();
+            final var results = reserveResults(network.getOutputCount() * inputCount);
+            predict(inputCount, input, batchSize, results);
+            return results.flip();
+        }
 
-        final var bfInput = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, input);
-        final var bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
-        final var bfWeights = createBuffers(network, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, NNLayer::getWeights);
-        final var bfBiases = createBuffers(network, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, NNLayer::getBiases);
-        final var results = BufferUtils.createFloatBuffer(network.getOutputCount() * inputCount);
+        @Override
+        public void predict(int inputCount, FloatBuffer input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            predict(inputCount, input, null, batchSize, output);
+        }
 
-        end(pEntryPredictSetup);
+        @Override
+        public void predict(int inputCount, NNByteInput input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            predict(inputCount, null, input, batchSize, output);
+        }
 
-        final var sTime = System.currentTimeMillis();
+        /**
+         * The results are read back without blocking, as the in-order queue already runs each read before the
+         * kernels of the next input. Heap outputs are filled through two direct staging buffers of the batch size,
+         * which are used for alternate batches, so the host only waits for the reads of a batch before reusing
+         * its staging buffer two batches later, and then copies it into the output.
+         */
+        private void predict(int inputCount, FloatBuffer input, NNByteInput byteInput, int batchSize, FloatBuffer output) {
 
-        for (int inputIdx = 0; inputIdx < inputCount; inputIdx++) {
-            begin(pEntryPredictFeedForward);
-            feedForward(network, bfInput, inputIdx, bfVals, bfWeights, bfBiases);
-            end(pEntryPredictFeedForward);
+            final var outputCount = network.getOutputCount();
+            final var size = inputCount * outputCount;
+            final var position = output.position();
+            checkBuffer(output, size);
+            checkBatchSize(batchSize);
+            if (batchSize < 0) batchSize = inputCount;
 
-            begin(pEntryPredictReadResults);
-            results.limit(network.getOutputCount() * (inputIdx + 1));
-            results.position(network.getOutputCount() * inputIdx);
+            begin(pEntryPredictSetup);
+
+            writeInput(inputCount, input, byteInput);
+            resident.upload();
+
+            end(pEntryPredictSetup);
+
+            final var sTime = System.currentTimeMillis();
             final var bfResult = bfVals[network.getLayers().size() - 1];
-            checkCLError(clEnqueueReadBuffer(clCommandQueue, bfResult, true, 0, results, null, null));
-            end(pEntryPredictReadResults);
+            final long[] reads = {-1, -1};
+            final int[] readOffsets = new int[2];
+
+            try {
+
+                var bNum = 0;
+                var bRemaining = inputCount;
+                while (bRemaining > 0) {
+
+                    final var bSize = Math.min(batchSize, bRemaining);
+                    final var bOffset = bNum * batchSize;
+                    final var slot = bNum & 1;
+
+                    begin(pEntryPredictWait);
+                    awaitRead(reads, readOffsets, slot, output);
+                    end(pEntryPredictWait);
+
+                    readOffsets[slot] = position + bOffset * outputCount;
+                    final var results = output.isDirect() ? output.slice(readOffsets[slot], bSize * outputCount)
+                            : reserveStaging(slot, bSize * outputCount);
+
+                    for (int i = 0; i < bSize; i++) {
+                        begin(pEntryPredictFeedForward);
+                        final var inputIdx = bOffset + i;
+                        final var bfSample = stageInput(byteInput, inputIdx, 1);
+                        final var sampleIdx = byteInput == null ? inputIdx : 0;
+                        feedForward(network, bfSample, sampleIdx, bfVals, bfWeights, bfBiases);
+                        end(pEntryPredictFeedForward);
+
+                        begin(pEntryPredictReadResults);
+                        final var dst = results.slice(i * outputCount, outputCount);
+                        checkCLError(clEnqueueReadBuffer(clCommandQueue, bfResult, false, 0, dst, null, null));
+                        end(pEntryPredictReadResults);
+                    }
+
+                    reads[slot] = marker();
+                    bRemaining -= bSize;
+                    bNum++;
+
+                }
+
+            } finally {
+                begin(pEntryPredictWait);
+                checkCLError(clFinish(clCommandQueue));
+                awaitRead(reads, readOffsets, 0, output);
+                awaitRead(reads, readOffsets, 1, output);
+                end(pEntryPredictWait);
+            }
+
+            output.position(position + size);
+
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
         }
 
-        final var eTime = System.currentTimeMillis();
-        System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+        @Override
+        public void train(int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            train(inputCount, input, null, targets, epochs, batchSize, learningRate, shuffle);
+        }
 
-        checkCLError(clReleaseMemObject(bfInput));
-        for (final var bf : bfVals) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfWeights) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfBiases) checkCLError(clReleaseMemObject(bf));
+        @Override
+        public void train(int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            train(inputCount, null, input, targets, epochs, batchSize, learningRate, shuffle);
+        }
 
-        results.clear();
-        return results;
+        /**
+         * As the kernels run one sample at a time and take its index as an argument,
+         * a shuffle only changes the indices passed to them, and nothing is gathered.
+         */
+        private void train(int inputCount, FloatBuffer input, NNByteInput byteInput, FloatBuffer targets,
+                           int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+
+            checkBuffer(targets, inputCount * network.getOutputCount());
+
+            begin(pEntryTrainSetup);
+
+            reserveTargets(inputCount * network.getOutputCount());
+            if (bfDeltas == null) bfDeltas = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
+            writeInput(inputCount, input, byteInput);
+            writeBuffer(bfTargets, targets, inputCount * network.getOutputCount());
+            resident.training();
+
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+            final var order = shuffle == null ? null : new int[inputCount];
+
+            for (int e = 0; e < epochs; e++) {
+                if (order != null) shuffle.permutation(e, order);
+                for (int i = 0; i < inputCount; i++) {
+                    final var inputIdx = order == null ? i : order[i];
+                    begin(pEntryTrainFeedForward);
+                    final var bfSample = stageInput(byteInput, inputIdx, 1);
+                    final var sampleIdx = byteInput == null ? inputIdx : 0;
+                    feedForward(network, bfSample, sampleIdx, bfVals, bfWeights, bfBiases);
+                    end(pEntryTrainFeedForward);
+
+                    begin(pEntryTrainBackProp);
+                    backProp(network, bfSample, sampleIdx, bfTargets, inputIdx, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
+                    end(pEntryTrainBackProp);
+                }
+            }
 
-    }
+            checkCLError(clFinish(clCommandQueue));
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
 
-    @Override
-    public void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+        }
 
-        checkContext(true);
-        checkBuffer(input, inputCount * network.getInputCount());
-        checkBuffer(targets, inputCount * network.getOutputCount());
+        /**
+         * Uploads each batch to the device once the source returns it, and then trains on its samples one by one.
+         */
+        @Override
+        public void train(NNBatchSource source, int epochs, float learningRate) {
+
+            checkOpen();
+            checkSource(source, network);
+
+            begin(pEntryTrainSetup);
+
+            reserveInput(source.getBatchSize() * network.getInputCount() * 4);
+            reserveTargets(source.getBatchSize() * network.getOutputCount());
+            if (bfDeltas == null) bfDeltas = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
+            resident.training();
+
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+            var inputCount = 0;
+
+            for (int e = 0; e < epochs; e++) {
+
+                NNBatchSource.Batch batch;
+                while ((batch = source.next()) != null) {
+
+                    final var bSize = batch.size();
+                    writeBuffer(bfInput, batch.input(), bSize * network.getInputCount());
+                    writeBuffer(bfTargets, batch.targets(), bSize * network.getOutputCount());
+
+                    for (int inputIdx = 0; inputIdx < bSize; inputIdx++) {
+                        begin(pEntryTrainFeedForward);
+                        feedForward(network, bfInput, inputIdx, bfVals, bfWeights, bfBiases);
+                        end(pEntryTrainFeedForward);
+
+                        begin(pEntryTrainBackProp);
+                        backProp(network, bfInput, inputIdx, bfTargets, inputIdx, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
+                        end(pEntryTrainBackProp);
+                    }
+
+                    if (e == 0) inputCount += bSize;
+
+                }
+
+            }
+
+            checkCLError(clFinish(clCommandQueue));
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
 
-        begin(pEntryTrainSetup);
+        }
 
-        final var bfInput = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, input);
-        final var bfTargets = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, targets);
-        final var bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
-        final var bfDeltas = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount);
-        final var bfWeights = createBuffers(network, CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, NNLayer::getWeights);
-        final var bfBiases = createBuffers(network, CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, NNLayer::getBiases);
+        /**
+         * Uploads the inputs to the device, as floats or, for byte inputs, as the raw bytes.
+         */
+        private void writeInput(int inputCount, FloatBuffer input, NNByteInput byteInput) {
+            final var size = inputCount * network.getInputCount();
+            if (byteInput == null) {
+                reserveInput(size * 4);
+                writeBuffer(bfInput, input, size);
+            } else {
+                reserveInput(size);
+                var data = byteInput.getData().limit(size);
+                if (!data.isDirect()) data = BufferUtils.createByteBuffer(size).put(data).flip();
+                checkCLError(clEnqueueWriteBuffer(clCommandQueue, bfInput, true, 0, data, null, null));
+            }
+        }
 
-        end(pEntryTrainSetup);
+        /**
+         * Returns the buffer to read the inputs of the given samples from. For byte inputs, these samples
+         * are dequantised into a staging buffer first, which then holds them starting at offset 0.
+         */
+        private long stageInput(NNByteInput byteInput, int first, int count) {
+
+            if (byteInput == null) return bfInput;
+
+            final var size = count * network.getInputCount();
+            if (size > stageCapacity) {
+                if (bfStage != -1) checkCLError(clReleaseMemObject(bfStage));
+                bfStage = createBuffer(CL_MEM_READ_WRITE, size * 4);
+                stageCapacity = size;
+            }
 
-        final var sTime = System.currentTimeMillis();
+            clSetKernelArg1p(clKernelDequantize, 0, bfStage);
+            clSetKernelArg1p(clKernelDequantize, 1, bfInput);
+            clSetKernelArg1i(clKernelDequantize, 2, first * network.getInputCount());
+            clSetKernelArg1f(clKernelDequantize, 3, byteInput.getScale());
+            clSetKernelArg1f(clKernelDequantize, 4, byteInput.getOffset());
+            runKernel(clKernelDequantize, size);
 
-        for (int e = 0; e < epochs; e++) {
-            for (int inputIdx = 0; inputIdx < inputCount; inputIdx++) {
-                begin(pEntryTrainFeedForward);
-                feedForward(network, bfInput, inputIdx, bfVals, bfWeights, bfBiases);
-                end(pEntryTrainFeedForward);
+            return bfStage;
+
+        }
+
+        private void reserveInput(int bytes) {
+            if (bytes <= inputCapacity) return;
+            if (bfInput != -1) checkCLError(clReleaseMemObject(bfInput));
+            bfInput = createBuffer(CL_MEM_READ_ONLY, bytes);
+            inputCapacity = bytes;
+        }
+
+        private void reserveTargets(int size) {
+            if (size <= targetsCapacity) return;
+            if (bfTargets != -1) checkCLError(clReleaseMemObject(bfTargets));
+            bfTargets = createBuffer(CL_MEM_READ_ONLY, size * 4);
+            targetsCapacity = size;
+        }
 
-                begin(pEntryTrainBackProp);
-                backProp(network, bfInput, bfTargets, inputIdx, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
-                end(pEntryTrainBackProp);
+        private FloatBuffer reserveStaging(int slot, int size) {
+            if (staging[slot] == null || staging[slot].capacity() < size) {
+                staging[slot] = BufferUtils.createFloatBuffer(size);
             }
+            return staging[slot].clear().limit(size);
+        }
+
+        /**
+         * Waits for the reads of the given slot, if there are any, and copies the results from the staging
+         * buffer of the slot into the output at its recorded offset if the output is a heap buffer.
+         */
+        private void awaitRead(long[] reads, int[] offsets, int slot, FloatBuffer output) {
+            if (reads[slot] == -1) return;
+            final var event = reads[slot];
+            reads[slot] = -1;
+            try {
+                checkCLError(clWaitForEvents(event));
+            } finally {
+                checkCLError(clReleaseEvent(event));
+            }
+            if (!output.isDirect()) output.put(offsets[slot], staging[slot], 0, staging[slot].limit());
+        }
+
+        private FloatBuffer reserveResults(int size) {
+            if (results == null || results.capacity() < size) {
+                results = BufferUtils.createFloatBuffer(size);
+            }
+            return results.clear().limit(size);
+        }
+
+        private void checkOpen() {
+            if (closed) throw new IllegalStateException("Session is closed");
+            checkContext(true);
+        }
+
+        @Override
+        public NNetwork getNetwork() {
+            return network;
+        }
+
+        @Override
+        public NNPlatform getPlatform() {
+            return NNPlatformOpenCL.this;
         }
 
-        final var eTime = System.currentTimeMillis();
-        System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+        @Override
+        public void close() {
 
-        updateBuffers(network, bfWeights, NNLayer::getWeights);
-        updateBuffers(network, bfBiases, NNLayer::getBiases);
+            if (closed) return;
+            closed = true;
+            sessions.remove(this);
 
-        checkCLError(clReleaseMemObject(bfInput));
-        checkCLError(clReleaseMemObject(bfTargets));
-        for (final var bf : bfVals) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfDeltas) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfWeights) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfBiases) checkCLError(clReleaseMemObject(bf));
+            if (bfInput != -1) checkCLError(clReleaseMemObject(bfInput));
+            if (bfTargets != -1) checkCLError(clReleaseMemObject(bfTargets));
+            if (bfStage != -1) checkCLError(clReleaseMemObject(bfStage));
+            for (final var bf : bfVals) checkCLError(clReleaseMemObject(bf));
+            if (bfDeltas != null) for (final var bf : bfDeltas) checkCLError(clReleaseMemObject(bf));
+
+        }
 
     }
 
@@ -205,6 +511,9 @@ public class NNPlatformOpenCL implements NNPlatform {
                 clSetKernelArg1p(kern, 5, bfVals[layerIdx - 1]);
             }
 
+            clSetKernelArg1i(kern, 6, network.getActivationPrecision().ordinal());
+            clSetKernelArg1p(kern, 7, clActTable);
+
             end(pEntryForwardSetup);
 
             begin(pEntryForwardRun);
@@ -215,7 +524,7 @@ public class NNPlatformOpenCL implements NNPlatform {
 
     }
 
-    private void backProp(NNetwork network, long bfInput, long bfTargets, int inputIdx,
+    private void backProp(NNetwork network, long bfInput, int inputIdx, long bfTargets, int targetIdx,
                           long[] bfVals, long[] bfDeltas, long[] bfWeights, long[] bfBiases, float learningRate) {
 
         begin(pEntryBackOutSetup);
@@ -240,7 +549,7 @@ public class NNPlatformOpenCL implements NNPlatform {
             clSetKernelArg1p(kernO, 7, bfVals[outputLayerIdx - 1]);
         }
 
-        clSetKernelArg1i(kernO, 8, inputIdx * outputLayer.getNodeCount());
+        clSetKernelArg1i(kernO, 8, targetIdx * outputLayer.getNodeCount());
         clSetKernelArg1p(kernO, 9, bfTargets);
         clSetKernelArg1f(kernO, 10, learningRate);
 
@@ -309,30 +618,24 @@ public class NNPlatformOpenCL implements NNPlatform {
         return buffers;
     }
 
-    private long[] createBuffers(NNetwork network, long flags, Function<NNLayer, FloatBuffer> bf) {
-        final var buffers = new long[network.getLayers().size()];
-        final var layers = network.getLayers();
-        for (int i = 0; i < layers.size(); i++) {
-            buffers[i] = clCreateBuffer(clContext.get(), flags, bf.apply(layers.get(i)), errBuffer);
-            checkCLError(errBuffer);
-        }
-        return buffers;
-    }
-
-    private void updateBuffers(NNetwork network, long[] src, Function<NNLayer, FloatBuffer> bf) {
-        final var layers = network.getLayers();
-        for (int i = 0; i < layers.size(); i++) {
-            final var buffer = bf.apply(layers.get(i));
-            buffer.clear();
-            checkCLError(clEnqueueReadBuffer(clCommandQueue, src[i], true, 0, buffer, null, null));
-            buffer.clear();
-        }
+    private void writeBuffer(long dst, FloatBuffer data, int size) {
+        final var slice = data.slice(data.position(), size);
+        checkCLError(clEnqueueWriteBuffer(clCommandQueue, dst, true, 0, slice, null, null));
     }
 
     private void runKernel(long clKernel, int itemCount) {
         workSize.put(0, itemCount);
         checkCLError(clEnqueueNDRangeKernel(clCommandQueue, clKernel, 1, null, workSize, null, null, null));
-        checkCLError(clFinish(clCommandQueue));
+    }
+
+    /**
+     * Enqueues a marker on the command queue and returns its event, which completes
+     * once all commands enqueued so far have completed.
+     */
+    private long marker() {
+        checkCLError(clEnqueueMarker(clCommandQueue, eventBuffer));
+        checkCLError(clFlush(clCommandQueue));
+        return eventBuffer.get(0);
     }
 
     private void checkContext(boolean inited) {
@@ -340,6 +643,25 @@ public class NNPlatformOpenCL implements NNPlatform {
         if ((clCommandQueue == -1) == inited) throw new IllegalStateException();
     }
 
+    private void checkBatchSize(int batchSize) {
+        if (batchSize == 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+    }
+
+    private void checkInput(NNByteInput input, int expectedSize) {
+        if (input.size() < expectedSize) {
+            throw new IllegalArgumentException("Size of input data not as expected ("
+                    + input.size() + " != " + expectedSize + ")");
+        }
+    }
+
+    private void checkSource(NNBatchSource source, NNetwork network) {
+        if (source.getInputSize() != network.getInputCount() || source.getTargetSize() != network.getOutputCount()) {
+            throw new IllegalArgumentException("Sample sizes of batch source do not match the network ("
+                    + source.getInputSize() + "/" + source.getTargetSize() + " != "
+                    + network.getInputCount() + "/" + network.getOutputCount() + ")");
+        }
+    }
+
     private void checkBuffer(FloatBuffer buffer, int expectedSize) {
         if (buffer.remaining() < expectedSize) {
             throw new IllegalArgumentException("Remaining data in buffer not as expected ("
@@ -386,11 +708,16 @@ public class NNPlatformOpenCL implements NNPlatform {
 
         checkContext(true);
 
+        List.copyOf(sessions).forEach(NNSession::close);
+        deviceCache.dispose();
+
         checkCLError(clReleaseCommandQueue(clCommandQueue));
         for (long k : clKernelForward) checkCLError(clReleaseKernel(k));
         for (long k : clKernelBackH) checkCLError(clReleaseKernel(k));
         for (long k : clKernelBackO) checkCLError(clReleaseKernel(k));
+        checkCLError(clReleaseKernel(clKernelDequantize));
         checkCLError(clReleaseProgram(clProgram));
+        checkCLError(clReleaseMemObject(clActTable));
 
         clCommandQueue = -1;
 
@@ -402,6 +729,7 @@ public class NNPlatformOpenCL implements NNPlatform {
         this.pEntryPredictSetup = pGroup.entry("predict_setup");
         this.pEntryPredictReadResults = pGroup.entry("predict_readResults");
         this.pEntryPredictFeedForward = pGroup.entry("predict_feedForward");
+        this.pEntryPredictWait = pGroup.entry("predict_wait");
         this.pEntryTrainSetup = pGroup.entry("train_setup");
         this.pEntryTrainFeedForward = pGroup.entry("train_feedForward");
         this.pEntryTrainBackProp = pGroup.entry("train_backProp");
@@ -419,6 +747,7 @@ public class NNPlatformOpenCL implements NNPlatform {
         this.pEntryPredictSetup = null;
         this.pEntryPredictReadResults = null;
         this.pEntryPredictFeedForward = null;
+        this.pEntryPredictWait = null;
         this.pEntryTrainSetup = null;
         this.pEntryTrainFeedForward = null;
         this.pEntryTrainBackProp = null;
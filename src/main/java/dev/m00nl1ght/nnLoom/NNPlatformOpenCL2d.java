@@ -1,6 +1,7 @@
 package dev.m00nl1ght.nnLoom;
 
 import dev.m00nl1ght.nnLoom.opencl.CLContext;
+import dev.m00nl1ght.nnLoom.opencl.CLProgramCache;
 import dev.m00nl1ght.clockwork.profiler.impl.SimpleCyclicProfilerEntry;
 import dev.m00nl1ght.clockwork.profiler.impl.SimpleProfilerGroup;
 import org.lwjgl.BufferUtils;
@@ -8,15 +9,12 @@ import org.lwjgl.PointerBuffer;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.LongBuffer;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.function.ToIntFunction;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static dev.m00nl1ght.nnLoom.opencl.CLUtil.*;
 import static org.lwjgl.opencl.CL10.*;
@@ -24,24 +22,50 @@ import static org.lwjgl.system.MemoryUtil.*;
 
 public class NNPlatformOpenCL2d implements NNPlatform {
 
+    /**
+     * Default edge length of the tiles used by the tiled kernels, which run in work groups of its square.
+     */
+    public static final int DEFAULT_TILE_SIZE = 16;
+
     private final CLContext clContext;
+    private final CLProgramCache programCache;
     private final IntBuffer errBuffer;
     private final PointerBuffer workSize;
+    private final PointerBuffer localSize;
+    private final PointerBuffer eventBuffer;
+    private final PointerBuffer waitList;
+    private final LongBuffer timeBuffer;
+    private int tileSize;
 
     private long clCommandQueue = -1;
+    private long clTransferQueue = -1;
     private long clProgram = -1;
+    private long clActTable = -1;
     private long[] clKernelForward;
     private long[] clKernelBackH;
     private long[] clKernelBackO;
+    private long[] clKernelForwardTiled;
+    private long[] clKernelBackHTiled;
+
+    private final Set<NNSession> sessions = new HashSet<>();
+    private NNDeviceCache deviceCache;
     private long clKernelApplyDeltas;
+    private long clKernelApplyDeltasTiled;
+    private long clKernelDequantize;
+    private long clKernelGather;
+    private long clKernelGatherDequantize;
 
     private SimpleProfilerGroup pGroup;
     private SimpleCyclicProfilerEntry pEntryPredictSetup;
     private SimpleCyclicProfilerEntry pEntryPredictReadResults;
     private SimpleCyclicProfilerEntry pEntryPredictFeedForward;
+    private SimpleCyclicProfilerEntry pEntryPredictWait;
     private SimpleCyclicProfilerEntry pEntryTrainSetup;
     private SimpleCyclicProfilerEntry pEntryTrainFeedForward;
     private SimpleCyclicProfilerEntry pEntryTrainBackProp;
+    private SimpleCyclicProfilerEntry pEntryTrainWait;
+    private SimpleCyclicProfilerEntry pEntryTransferUpload;
+    private SimpleCyclicProfilerEntry pEntryTransferRead;
     private SimpleCyclicProfilerEntry pEntryForwardSetup;
     private SimpleCyclicProfilerEntry pEntryForwardRun;
     private SimpleCyclicProfilerEntry pEntryBackOutSetup;
@@ -52,9 +76,29 @@ public class NNPlatformOpenCL2d implements NNPlatform {
     private SimpleCyclicProfilerEntry pEntryBackApplyRun;
 
     public NNPlatformOpenCL2d(CLContext clContext) {
+        this(clContext, CLProgramCache.getDefault());
+    }
+
+    public NNPlatformOpenCL2d(CLContext clContext, CLProgramCache programCache) {
+        this(clContext, programCache, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a platform that uses tiles of the given edge length for layers that are at least as large
+     * in every dimension. The tile size is reduced if the device does not support work groups of its square.
+     * A tile size of 1 disables the tiled kernels.
+     */
+    public NNPlatformOpenCL2d(CLContext clContext, CLProgramCache programCache, int tileSize) {
+        if (tileSize < 1) throw new IllegalArgumentException("Invalid tile size: " + tileSize);
         this.clContext = Objects.requireNonNull(clContext);
+        this.programCache = Objects.requireNonNull(programCache);
+        this.tileSize = tileSize;
         this.errBuffer = BufferUtils.createIntBuffer(1);
         this.workSize = BufferUtils.createPointerBuffer(2);
+        this.localSize = BufferUtils.createPointerBuffer(2);
+        this.eventBuffer = BufferUtils.createPointerBuffer(1);
+        this.waitList = BufferUtils.createPointerBuffer(1);
+        this.timeBuffer = BufferUtils.createLongBuffer(1);
     }
 
     @Override
@@ -64,27 +108,47 @@ public class NNPlatformOpenCL2d implements NNPlatform {
 
         clCommandQueue = clCreateCommandQueue(clContext.get(), clContext.dev(), NULL, errBuffer);
         checkCLError(errBuffer);
+        clTransferQueue = clCreateCommandQueue(clContext.get(), clContext.dev(), CL_QUEUE_PROFILING_ENABLE, errBuffer);
+        checkCLError(errBuffer);
+        deviceCache = new NNDeviceCache(clContext, clCommandQueue);
+
+        final var maxGroupSize = getDeviceInfoPointer(clContext.dev(), CL_DEVICE_MAX_WORK_GROUP_SIZE);
+        while ((long) tileSize * tileSize > maxGroupSize) tileSize /= 2;
 
+        final var actSource = ioResourceToByteBuffer("nnActivation.cl", 1024);
         final var source = ioResourceToByteBuffer("nnPlatform2d.cl", 1024);
 
-        final var strings = BufferUtils.createPointerBuffer(1);
-        final var lengths = BufferUtils.createPointerBuffer(1);
+        final var buildOptions = "-DACT_TABLE_SIZE=" + ActivationPrecision.TABLE_SIZE
+                + " -DACT_TABLE_RANGE=" + ActivationPrecision.TABLE_RANGE + "f"
+                + " -DTILE_SIZE=" + tileSize;
+
+        clProgram = programCache.build(clContext, "nnPlatform2d", buildOptions, actSource, source);
+
+        final var actTable = BufferUtils.createFloatBuffer(ActivationPrecision.TABLE_SIZE + 1);
+        actTable.put(0, ActivationPrecision.getTable());
+        clActTable = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, actTable);
+
+        clKernelApplyDeltas = clCreateKernel(clProgram, "applyDeltas", errBuffer);
+        checkCLError(errBuffer);
 
-        strings.put(0, source);
-        lengths.put(0, source.remaining());
+        clKernelApplyDeltasTiled = clCreateKernel(clProgram, "applyDeltasTiled", errBuffer);
+        checkCLError(errBuffer);
 
-        clProgram = clCreateProgramWithSource(clContext.get(), strings, lengths, errBuffer);
+        clKernelDequantize = clCreateKernel(clProgram, "dequantize", errBuffer);
         checkCLError(errBuffer);
 
-        checkCLError(clBuildProgram(clProgram, clContext.dev(), "", null, NULL));
+        clKernelGather = clCreateKernel(clProgram, "gather", errBuffer);
+        checkCLError(errBuffer);
 
-        clKernelApplyDeltas = clCreateKernel(clProgram, "applyDeltas", errBuffer);
+        clKernelGatherDequantize = clCreateKernel(clProgram, "gatherDequantize", errBuffer);
         checkCLError(errBuffer);
 
         final var actCount = Activation.values().length;
         clKernelForward = new long[actCount];
         clKernelBackH = new long[actCount];
         clKernelBackO = new long[actCount];
+        clKernelForwardTiled = new long[actCount];
+        clKernelBackHTiled = new long[actCount];
 
         for (final var act : Activation.values()) {
 
@@ -97,124 +161,549 @@ public class NNPlatformOpenCL2d implements NNPlatform {
             clKernelBackO[act.ordinal()] = clCreateKernel(clProgram, "backO" + act.name(), errBuffer);
             checkCLError(errBuffer);
 
+            clKernelForwardTiled[act.ordinal()] = clCreateKernel(clProgram, "forwardTiled" + act.name(), errBuffer);
+            checkCLError(errBuffer);
+
+            clKernelBackHTiled[act.ordinal()] = clCreateKernel(clProgram, "backHTiled" + act.name(), errBuffer);
+            checkCLError(errBuffer);
+
         }
 
     }
 
     @Override
-    public FloatBuffer predict(NNetwork network, int inputCount, FloatBuffer input, int batchSize) {
+    public NNSession openSession(NNetwork network) {
+        checkContext(true);
+        final var session = new Session(Objects.requireNonNull(network));
+        sessions.add(session);
+        return session;
+    }
 
+    /**
+     * Releases the device memory holding the weights and biases of the given network, after reading back
+     * any updates from training. They are otherwise kept between sessions until the network is garbage collected.
+     */
+    public void release(NNetwork network) {
         checkContext(true);
-        checkBuffer(input, inputCount * network.getInputCount());
-        if (batchSize < 0) batchSize = inputCount;
+        if (sessions.stream().anyMatch(s -> s.getNetwork() == network))
+            throw new IllegalStateException("Network is still used by an open session");
+        deviceCache.release(network);
+    }
 
-        begin(pEntryPredictSetup);
+    private final class Session implements NNSession {
+
+        private final NNetwork network;
+
+        private final NNDeviceCache.Entry resident;
+        private final long[] bfWeights;
+        private final long[] bfBiases;
+        private long[] bfVals;
+        private long[] bfValsAlt;
+        private long[] bfDeltas;
+        private int capacity;
+
+        private long bfInput = -1;
+        private long bfTargets = -1;
+        private long bfStage = -1;
+        private long bfTargetStage = -1;
+        private long bfOrder = -1;
+        private int inputCapacity;
+        private int targetsCapacity;
+        private int stageCapacity;
+        private int targetStageCapacity;
+        private int orderCapacity;
+        private final long[] bfBatchInput = {-1, -1};
+        private final long[] bfBatchTargets = {-1, -1};
+        private int batchCapacity;
+        private IntBuffer orderStaging;
+        private FloatBuffer results;
+        private final FloatBuffer[] staging = new FloatBuffer[2];
+
+        private boolean closed;
+
+        private Session(NNetwork network) {
+            this.network = network;
+            this.resident = deviceCache.get(network);
+            this.bfWeights = resident.bfWeights;
+            this.bfBiases = resident.bfBiases;
+        }
 
-        final var bfInput = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, input);
-        final var bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount, batchSize);
-        final var bfWeights = createBuffers(network, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, NNLayer::getWeights);
-        final var bfBiases = createBuffers(network, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, NNLayer::getBiases);
-        final var results = BufferUtils.createFloatBuffer(network.getOutputCount() * inputCount);
+        @Override
+        public FloatBuffer predict(int inputCount, FloatBuffer input, int batchSize) {
+            checkOpen();
+            final var results = reserveResults(network.getOutputCount() * inputCount);
+            predict(inputCount, input, batchSize, results);
+            return results.flip();
+        }
 
-        end(pEntryPredictSetup);
+        @Override
+        public void predict(int inputCount, FloatBuffer input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            predict(inputCount, input, null, batchSize, output);
+        }
 
-        final var sTime = System.currentTimeMillis();
+        @Override
+        public void predict(int inputCount, NNByteInput input, int batchSize, FloatBuffer output) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            predict(inputCount, null, input, batchSize, output);
+        }
 
-        var bNum = 0;
-        var bRemaining = inputCount;
-        while (bRemaining > 0) {
+        /**
+         * Alternates between two buffers for the output layer, so that the results of each batch are read back
+         * on the transfer queue while the next batch is computed. Heap outputs are filled through one direct
+         * staging buffer of the batch size per buffer, which is copied into the output once its read is awaited.
+         */
+        private void predict(int inputCount, FloatBuffer input, NNByteInput byteInput, int batchSize, FloatBuffer output) {
+
+            final var outputCount = network.getOutputCount();
+            final var size = inputCount * outputCount;
+            final var position = output.position();
+            checkBuffer(output, size);
+            checkBatchSize(batchSize);
+            if (batchSize < 0) batchSize = inputCount;
+
+            begin(pEntryPredictSetup);
+
+            reserve(batchSize, false);
+            reserveAlt();
+            writeInput(inputCount, input, byteInput);
+            resident.upload();
+
+            end(pEntryPredictSetup);
+
+            final var sTime = System.currentTimeMillis();
+            final var outputLayerIdx = network.getLayers().size() - 1;
+            final long[] reads = {-1, -1};
+            final int[] readOffsets = new int[2];
+
+            try {
+
+                var bNum = 0;
+                var bRemaining = inputCount;
+                while (bRemaining > 0) {
+
+                    final var bSize = Math.min(batchSize, bRemaining);
+                    final var bOffset = bNum * batchSize;
+                    final var slot = bNum & 1;
+                    final var vals = slot == 0 ? bfVals : bfValsAlt;
+
+                    begin(pEntryPredictWait);
+                    awaitRead(reads, readOffsets, slot, output);
+                    end(pEntryPredictWait);
+
+                    begin(pEntryPredictFeedForward);
+                    final var bfBatch = stageInput(byteInput, bOffset, bSize);
+                    final var bInputOffset = byteInput == null ? bOffset : 0;
+                    feedForward(network, bfBatch, bInputOffset, bSize, vals, bfWeights, bfBiases);
+                    end(pEntryPredictFeedForward);
+
+                    begin(pEntryPredictReadResults);
+                    readOffsets[slot] = position + bOffset * outputCount;
+                    final var dst = output.isDirect() ? output.slice(readOffsets[slot], bSize * outputCount)
+                            : reserveStaging(slot, bSize * outputCount);
+                    reads[slot] = readAsync(vals[outputLayerIdx], dst);
+                    end(pEntryPredictReadResults);
+
+                    bRemaining -= bSize;
+                    bNum++;
 
-            final var bSize = Math.min(batchSize, bRemaining);
-            final var bOffset = bNum * batchSize;
+                }
 
-            begin(pEntryPredictFeedForward);
-            feedForward(network, bfInput, bOffset, bSize, bfVals, bfWeights, bfBiases);
-            end(pEntryPredictFeedForward);
+            } finally {
+                begin(pEntryPredictWait);
+                awaitRead(reads, readOffsets, 0, output);
+                awaitRead(reads, readOffsets, 1, output);
+                end(pEntryPredictWait);
+            }
 
-            begin(pEntryPredictReadResults);
-            results.limit(network.getOutputCount() * (bOffset + bSize));
-            results.position(network.getOutputCount() * bOffset);
-            final var bfResult = bfVals[network.getLayers().size() - 1];
-            checkCLError(clEnqueueReadBuffer(clCommandQueue, bfResult, true, 0, results, null, null));
-            end(pEntryPredictReadResults);
+            output.position(position + size);
 
-            bRemaining -= bSize;
-            bNum++;
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
 
         }
 
-        final var eTime = System.currentTimeMillis();
-        System.out.println("Predicted for " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+        @Override
+        public void train(int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkBuffer(input, inputCount * network.getInputCount());
+            train(inputCount, input, null, targets, epochs, batchSize, learningRate, shuffle);
+        }
 
-        checkCLError(clReleaseMemObject(bfInput));
-        for (final var bf : bfVals) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfWeights) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfBiases) checkCLError(clReleaseMemObject(bf));
+        @Override
+        public void train(int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
+            checkOpen();
+            checkInput(input, inputCount * network.getInputCount());
+            train(inputCount, null, input, targets, epochs, batchSize, learningRate, shuffle);
+        }
 
-        results.clear();
-        return results;
+        /**
+         * With a shuffle, the permutation of each epoch is uploaded to the device, and the samples of each batch
+         * are gathered through it into staging buffers, which the kernels then read from offset 0.
+         */
+        private void train(int inputCount, FloatBuffer input, NNByteInput byteInput, FloatBuffer targets,
+                           int epochs, int batchSize, float learningRate, NNShuffle shuffle) {
 
-    }
+            checkBuffer(targets, inputCount * network.getOutputCount());
+            checkBatchSize(batchSize);
+            if (batchSize < 0) batchSize = inputCount;
 
-    @Override
-    public void train(NNetwork network, int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+            begin(pEntryTrainSetup);
 
-        checkContext(true);
-        checkBuffer(input, inputCount * network.getInputCount());
-        checkBuffer(targets, inputCount * network.getOutputCount());
-        if (batchSize < 0) batchSize = inputCount;
+            final var order = shuffle == null ? null : reserveOrder(inputCount);
+            reserve(batchSize, true);
+            reserveTargets(inputCount * network.getOutputCount());
+            writeInput(inputCount, input, byteInput);
+            writeBuffer(bfTargets, targets, inputCount * network.getOutputCount());
+            resident.training();
+
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+
+            for (int e = 0; e < epochs; e++) {
+
+                if (order != null) {
+                    shuffle.permutation(e, order);
+                    orderStaging.put(0, order);
+                    checkCLError(clEnqueueWriteBuffer(clCommandQueue, bfOrder, true, 0, orderStaging.limit(inputCount), null, null));
+                }
+
+                var bNum = 0;
+                var bRemaining = inputCount;
+                while (bRemaining > 0) {
+
+                    final var bSize = Math.min(batchSize, bRemaining);
+                    final var bOffset = bNum * batchSize;
+
+                    begin(pEntryTrainFeedForward);
+                    final var bfBatch = order == null ? stageInput(byteInput, bOffset, bSize) : gatherInput(byteInput, bOffset, bSize);
+                    final var bInputOffset = byteInput == null && order == null ? bOffset : 0;
+                    feedForward(network, bfBatch, bInputOffset, bSize, bfVals, bfWeights, bfBiases);
+                    end(pEntryTrainFeedForward);
+
+                    begin(pEntryTrainBackProp);
+                    final var bfBatchTargets = order == null ? bfTargets : gatherTargets(bOffset, bSize);
+                    final var bTargetOffset = order == null ? bOffset : 0;
+                    backProp(network, bfBatch, bInputOffset, bfBatchTargets, bTargetOffset, bSize, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
+                    end(pEntryTrainBackProp);
 
-        begin(pEntryTrainSetup);
+                    bRemaining -= bSize;
+                    bNum++;
 
-        // shuffleBuffers(network, inputCount, input, targets);
+                }
+
+            }
+
+            checkCLError(clFinish(clCommandQueue));
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+        }
+
+        /**
+         * Makes sure the value buffers can hold batches of the given size, growing them if needed.
+         * The delta buffers are allocated once the session is first used for training.
+         */
+        private void reserve(int batchSize, boolean training) {
+            if (batchSize > capacity) {
+                releaseBuffers(bfVals);
+                releaseBuffers(bfDeltas);
+                releaseAlt();
+                capacity = batchSize;
+                bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount, capacity);
+                bfDeltas = null;
+            }
+            if (training && bfDeltas == null) {
+                bfDeltas = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount, capacity);
+            }
+        }
+
+        /**
+         * Makes sure there are value buffers for the alternate batches of a prediction, which share
+         * all buffers with the regular ones except the one for the output layer.
+         */
+        private void reserveAlt() {
+            if (bfValsAlt != null) return;
+            final var outputLayerIdx = network.getLayers().size() - 1;
+            bfValsAlt = bfVals.clone();
+            bfValsAlt[outputLayerIdx] = createBuffer(CL_MEM_READ_WRITE, network.getOutputCount() * 4 * capacity);
+        }
+
+        private void releaseAlt() {
+            if (bfValsAlt == null) return;
+            checkCLError(clReleaseMemObject(bfValsAlt[network.getLayers().size() - 1]));
+            bfValsAlt = null;
+        }
 
-        final var bfInput = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, input);
-        final var bfTargets = createBuffer(CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, targets);
-        final var bfVals = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount, batchSize);
-        final var bfDeltas = createBuffers(network, CL_MEM_READ_WRITE, NNLayer::getNodeCount, batchSize);
-        final var bfWeights = createBuffers(network, CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, NNLayer::getWeights);
-        final var bfBiases = createBuffers(network, CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, NNLayer::getBiases);
+        /**
+         * Uploads each batch on the transfer queue into one of two sets of buffers, while the previous batch
+         * is still being trained on from the other set. The upload is awaited before the next batch is taken
+         * from the source, which may reuse its buffers then, so at most two batches are resident at a time.
+         */
+        @Override
+        public void train(NNBatchSource source, int epochs, float learningRate) {
 
-        end(pEntryTrainSetup);
+            checkOpen();
+            checkSource(source, network);
 
-        final var sTime = System.currentTimeMillis();
+            begin(pEntryTrainSetup);
 
-        for (int e = 0; e < epochs; e++) {
+            reserve(source.getBatchSize(), true);
+            reserveBatches(source.getBatchSize());
+            resident.training();
 
+            end(pEntryTrainSetup);
+
+            final var sTime = System.currentTimeMillis();
+            final long[] consumed = {-1, -1};
+            var inputCount = 0;
             var bNum = 0;
-            var bRemaining = inputCount;
-            while (bRemaining > 0) {
 
-                final var bSize = Math.min(batchSize, bRemaining);
-                final var bOffset = bNum * batchSize;
+            try {
+
+                for (int e = 0; e < epochs; e++) {
+
+                    NNBatchSource.Batch batch;
+                    while ((batch = source.next()) != null) {
+
+                        final var bSize = batch.size();
+                        final var slot = bNum & 1;
+
+                        begin(pEntryTrainFeedForward);
+                        waitList.put(0, consumed[slot]);
+                        final var inputWait = consumed[slot] == -1 ? null : waitList;
+                        final var inputWrite = writeAsync(bfBatchInput[slot], batch.input(), bSize * network.getInputCount(), inputWait);
+                        final var targetsWrite = writeAsync(bfBatchTargets[slot], batch.targets(), bSize * network.getOutputCount(), null);
+                        release(consumed[slot]);
+                        consumed[slot] = -1;
+                        checkCLError(clEnqueueWaitForEvents(clCommandQueue, targetsWrite));
+                        feedForward(network, bfBatchInput[slot], 0, bSize, bfVals, bfWeights, bfBiases);
+                        end(pEntryTrainFeedForward);
+
+                        begin(pEntryTrainBackProp);
+                        backProp(network, bfBatchInput[slot], 0, bfBatchTargets[slot], 0, bSize, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
+                        consumed[slot] = marker();
+                        end(pEntryTrainBackProp);
+
+                        begin(pEntryTrainWait);
+                        await(inputWrite, targetsWrite, pEntryTransferUpload);
+                        end(pEntryTrainWait);
+
+                        if (e == 0) inputCount += bSize;
+                        bNum++;
+
+                    }
+
+                }
+
+                checkCLError(clFinish(clCommandQueue));
+
+            } finally {
+                release(consumed[0]);
+                release(consumed[1]);
+            }
+
+            final var eTime = System.currentTimeMillis();
+            System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+
+        }
+
+        private void reserveBatches(int batchSize) {
+            if (batchSize <= batchCapacity) return;
+            for (int i = 0; i < 2; i++) {
+                if (bfBatchInput[i] != -1) checkCLError(clReleaseMemObject(bfBatchInput[i]));
+                if (bfBatchTargets[i] != -1) checkCLError(clReleaseMemObject(bfBatchTargets[i]));
+                bfBatchInput[i] = createBuffer(CL_MEM_READ_ONLY, batchSize * network.getInputCount() * 4);
+                bfBatchTargets[i] = createBuffer(CL_MEM_READ_ONLY, batchSize * network.getOutputCount() * 4);
+            }
+            batchCapacity = batchSize;
+        }
+
+        /**
+         * Uploads the inputs to the device, as floats or, for byte inputs, as the raw bytes.
+         */
+        private void writeInput(int inputCount, FloatBuffer input, NNByteInput byteInput) {
+            final var size = inputCount * network.getInputCount();
+            if (byteInput == null) {
+                reserveInput(size * 4);
+                writeBuffer(bfInput, input, size);
+            } else {
+                reserveInput(size);
+                var data = byteInput.getData().limit(size);
+                if (!data.isDirect()) data = BufferUtils.createByteBuffer(size).put(data).flip();
+                checkCLError(clEnqueueWriteBuffer(clCommandQueue, bfInput, true, 0, data, null, null));
+            }
+        }
+
+        /**
+         * Returns the buffer to read the inputs of the given samples from. For byte inputs, these samples
+         * are dequantised into a staging buffer first, which then holds them starting at offset 0.
+         */
+        private long stageInput(NNByteInput byteInput, int first, int count) {
+
+            if (byteInput == null) return bfInput;
+
+            final var size = count * network.getInputCount();
+            reserveStage(size);
+
+            clSetKernelArg1p(clKernelDequantize, 0, bfStage);
+            clSetKernelArg1p(clKernelDequantize, 1, bfInput);
+            clSetKernelArg1i(clKernelDequantize, 2, first * network.getInputCount());
+            clSetKernelArg1f(clKernelDequantize, 3, byteInput.getScale());
+            clSetKernelArg1f(clKernelDequantize, 4, byteInput.getOffset());
+            runKernel(clKernelDequantize, size, 1);
 
-                begin(pEntryTrainFeedForward);
-                feedForward(network, bfInput, bOffset, bSize, bfVals, bfWeights, bfBiases);
-                end(pEntryTrainFeedForward);
+            return bfStage;
 
-                begin(pEntryTrainBackProp);
-                backProp(network, bfInput, bfTargets, bOffset, bSize, bfVals, bfDeltas, bfWeights, bfBiases, learningRate);
-                end(pEntryTrainBackProp);
+        }
+
+        /**
+         * Gathers the inputs of the given samples of the current order into the staging buffer,
+         * dequantising them for byte inputs, and returns the staging buffer.
+         */
+        private long gatherInput(NNByteInput byteInput, int first, int count) {
+
+            final var sampleSize = network.getInputCount();
+            reserveStage(count * sampleSize);
+
+            final var kern = byteInput == null ? clKernelGather : clKernelGatherDequantize;
+            clSetKernelArg1p(kern, 0, bfStage);
+            clSetKernelArg1p(kern, 1, bfInput);
+            clSetKernelArg1p(kern, 2, bfOrder);
+            clSetKernelArg1i(kern, 3, first);
+            clSetKernelArg1i(kern, 4, sampleSize);
+            if (byteInput != null) {
+                clSetKernelArg1f(kern, 5, byteInput.getScale());
+                clSetKernelArg1f(kern, 6, byteInput.getOffset());
+            }
+            runKernel(kern, sampleSize, count);
+
+            return bfStage;
+
+        }
+
+        /**
+         * Gathers the targets of the given samples of the current order into a staging buffer and returns it.
+         */
+        private long gatherTargets(int first, int count) {
+
+            final var sampleSize = network.getOutputCount();
+            final var size = count * sampleSize;
+            if (size > targetStageCapacity) {
+                if (bfTargetStage != -1) checkCLError(clReleaseMemObject(bfTargetStage));
+                bfTargetStage = createBuffer(CL_MEM_READ_WRITE, size * 4);
+                targetStageCapacity = size;
+            }
+
+            clSetKernelArg1p(clKernelGather, 0, bfTargetStage);
+            clSetKernelArg1p(clKernelGather, 1, bfTargets);
+            clSetKernelArg1p(clKernelGather, 2, bfOrder);
+            clSetKernelArg1i(clKernelGather, 3, first);
+            clSetKernelArg1i(clKernelGather, 4, sampleSize);
+            runKernel(clKernelGather, sampleSize, count);
+
+            return bfTargetStage;
+
+        }
 
-                bRemaining -= bSize;
-                bNum++;
+        private void reserveStage(int size) {
+            if (size <= stageCapacity) return;
+            if (bfStage != -1) checkCLError(clReleaseMemObject(bfStage));
+            bfStage = createBuffer(CL_MEM_READ_WRITE, size * 4);
+            stageCapacity = size;
+        }
 
+        /**
+         * Makes sure the device and staging buffers for the order can hold the given number of indices,
+         * and returns a new array of that size to compute the permutations in.
+         */
+        private int[] reserveOrder(int size) {
+            if (size > orderCapacity) {
+                if (bfOrder != -1) checkCLError(clReleaseMemObject(bfOrder));
+                bfOrder = createBuffer(CL_MEM_READ_ONLY, size * 4);
+                orderStaging = BufferUtils.createIntBuffer(size);
+                orderCapacity = size;
             }
+            orderStaging.clear();
+            return new int[size];
+        }
 
+        private void reserveInput(int bytes) {
+            if (bytes <= inputCapacity) return;
+            if (bfInput != -1) checkCLError(clReleaseMemObject(bfInput));
+            bfInput = createBuffer(CL_MEM_READ_ONLY, bytes);
+            inputCapacity = bytes;
         }
 
-        final var eTime = System.currentTimeMillis();
-        System.out.println("Completed " + epochs + " epochs using " + inputCount + " data sets in " + (eTime - sTime) + " ms.");
+        private void reserveTargets(int size) {
+            if (size <= targetsCapacity) return;
+            if (bfTargets != -1) checkCLError(clReleaseMemObject(bfTargets));
+            bfTargets = createBuffer(CL_MEM_READ_ONLY, size * 4);
+            targetsCapacity = size;
+        }
 
-        updateBuffers(network, bfWeights, NNLayer::getWeights);
-        updateBuffers(network, bfBiases, NNLayer::getBiases);
+        private FloatBuffer reserveStaging(int slot, int size) {
+            if (staging[slot] == null || staging[slot].capacity() < size) {
+                staging[slot] = BufferUtils.createFloatBuffer(size);
+            }
+            return staging[slot].clear().limit(size);
+        }
 
-        checkCLError(clReleaseMemObject(bfInput));
-        checkCLError(clReleaseMemObject(bfTargets));
-        for (final var bf : bfVals) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfDeltas) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfWeights) checkCLError(clReleaseMemObject(bf));
-        for (final var bf : bfBiases) checkCLError(clReleaseMemObject(bf));
+        /**
+         * Waits for the pending read of the given slot, if there is one, and copies the results from the staging
+         * buffer of the slot into the output at its recorded offset if the output is a heap buffer.
+         */
+        private void awaitRead(long[] reads, int[] offsets, int slot, FloatBuffer output) {
+            if (reads[slot] == -1) return;
+            await(reads[slot], pEntryTransferRead);
+            reads[slot] = -1;
+            if (!output.isDirect()) output.put(offsets[slot], staging[slot], 0, staging[slot].limit());
+        }
+
+        private FloatBuffer reserveResults(int size) {
+            if (results == null || results.capacity() < size) {
+                results = BufferUtils.createFloatBuffer(size);
+            }
+            return results.clear().limit(size);
+        }
+
+        private void checkOpen() {
+            if (closed) throw new IllegalStateException("Session is closed");
+            checkContext(true);
+        }
+
+        @Override
+        public NNetwork getNetwork() {
+            return network;
+        }
+
+        @Override
+        public NNPlatform getPlatform() {
+            return NNPlatformOpenCL2d.this;
+        }
+
+        @Override
+        public void close() {
+
+            if (closed) return;
+            closed = true;
+            sessions.remove(this);
+
+            if (bfInput != -1) checkCLError(clReleaseMemObject(bfInput));
+            if (bfTargets != -1) checkCLError(clReleaseMemObject(bfTargets));
+            if (bfStage != -1) checkCLError(clReleaseMemObject(bfStage));
+            if (bfTargetStage != -1) checkCLError(clReleaseMemObject(bfTargetStage));
+            if (bfOrder != -1) checkCLError(clReleaseMemObject(bfOrder));
+            for (final var bf : bfBatchInput) if (bf != -1) checkCLError(clReleaseMemObject(bf));
+            for (final var bf : bfBatchTargets) if (bf != -1) checkCLError(clReleaseMemObject(bf));
+            releaseAlt();
+            releaseBuffers(bfVals);
+            releaseBuffers(bfDeltas);
+
+        }
 
     }
 
@@ -227,7 +716,8 @@ public class NNPlatformOpenCL2d implements NNPlatform {
             begin(pEntryForwardSetup);
 
             final var layer = layers.get(layerIdx);
-            final var kern = clKernelForward[layer.getActivation().ordinal()];
+            final var tiled = useTiled(layer.getNodeCount(), size, layer.getEdgeCount());
+            final var kern = (tiled ? clKernelForwardTiled : clKernelForward)[layer.getActivation().ordinal()];
 
             clSetKernelArg1i(kern, 0, layer.getNodeCount());
             clSetKernelArg1p(kern, 1, bfVals[layerIdx]);
@@ -243,17 +733,22 @@ public class NNPlatformOpenCL2d implements NNPlatform {
                 clSetKernelArg1p(kern, 6, bfVals[layerIdx - 1]);
             }
 
+            clSetKernelArg1i(kern, 7, network.getActivationPrecision().ordinal());
+            clSetKernelArg1p(kern, 8, clActTable);
+            if (tiled) clSetKernelArg1i(kern, 9, size);
+
             end(pEntryForwardSetup);
 
             begin(pEntryForwardRun);
-            runKernel(kern, layer.getNodeCount(), size);
+            if (tiled) runKernelTiled(kern, layer.getNodeCount(), size);
+            else runKernel(kern, layer.getNodeCount(), size);
             end(pEntryForwardRun);
 
         }
 
     }
 
-    private void backProp(NNetwork network, long bfInput, long bfTargets, int offset, int size,
+    private void backProp(NNetwork network, long bfInput, int inputOffset, long bfTargets, int offset, int size,
                           long[] bfVals, long[] bfDeltas, long[] bfWeights, long[] bfBiases, float learningRate) {
 
         begin(pEntryBackOutSetup);
@@ -280,19 +775,23 @@ public class NNPlatformOpenCL2d implements NNPlatform {
             begin(pEntryBackSetup);
 
             final var layer = layers.get(layerIdx);
-            final var kern = clKernelBackH[layer.getActivation().ordinal()];
+            final var nextSize = layers.get(layerIdx + 1).getNodeCount();
+            final var tiled = useTiled(layer.getNodeCount(), size, nextSize);
+            final var kern = (tiled ? clKernelBackHTiled : clKernelBackH)[layer.getActivation().ordinal()];
 
             clSetKernelArg1i(kern, 0, layer.getNodeCount());
             clSetKernelArg1p(kern, 1, bfVals[layerIdx]);
             clSetKernelArg1p(kern, 2, bfDeltas[layerIdx]);
-            clSetKernelArg1i(kern, 3, layers.get(layerIdx + 1).getNodeCount());
+            clSetKernelArg1i(kern, 3, nextSize);
             clSetKernelArg1p(kern, 4, bfDeltas[layerIdx + 1]);
             clSetKernelArg1p(kern, 5, bfWeights[layerIdx + 1]);
+            if (tiled) clSetKernelArg1i(kern, 6, size);
 
             end(pEntryBackSetup);
 
             begin(pEntryBackRun);
-            runKernel(kern, layer.getNodeCount(), size);
+            if (tiled) runKernelTiled(kern, layer.getNodeCount(), size);
+            else runKernel(kern, layer.getNodeCount(), size);
             end(pEntryBackRun);
 
         }
@@ -302,66 +801,37 @@ public class NNPlatformOpenCL2d implements NNPlatform {
             begin(pEntryBackApplySetup);
 
             final var layer = layers.get(layerIdx);
+            final var tiled = useTiled(layer.getEdgeCount(), layer.getNodeCount(), size);
+            final var kern = tiled ? clKernelApplyDeltasTiled : clKernelApplyDeltas;
 
-            clSetKernelArg1i(clKernelApplyDeltas, 0, layer.getNodeCount());
-            clSetKernelArg1p(clKernelApplyDeltas, 1, bfVals[layerIdx]);
-            clSetKernelArg1p(clKernelApplyDeltas, 2, bfDeltas[layerIdx]);
-            clSetKernelArg1p(clKernelApplyDeltas, 3, bfWeights[layerIdx]);
-            clSetKernelArg1p(clKernelApplyDeltas, 4, bfBiases[layerIdx]);
-            clSetKernelArg1i(clKernelApplyDeltas, 5, layer.getEdgeCount());
+            clSetKernelArg1i(kern, 0, layer.getNodeCount());
+            clSetKernelArg1p(kern, 1, bfDeltas[layerIdx]);
+            clSetKernelArg1p(kern, 2, bfWeights[layerIdx]);
+            clSetKernelArg1p(kern, 3, bfBiases[layerIdx]);
+            clSetKernelArg1i(kern, 4, layer.getEdgeCount());
 
             if (layerIdx == 0) {
-                clSetKernelArg1i(clKernelApplyDeltas, 6, offset * network.getInputCount());
-                clSetKernelArg1p(clKernelApplyDeltas, 7, bfInput);
+                clSetKernelArg1i(kern, 5, inputOffset * network.getInputCount());
+                clSetKernelArg1p(kern, 6, bfInput);
             } else {
-                clSetKernelArg1i(clKernelApplyDeltas, 6, 0);
-                clSetKernelArg1p(clKernelApplyDeltas, 7, bfVals[layerIdx - 1]);
+                clSetKernelArg1i(kern, 5, 0);
+                clSetKernelArg1p(kern, 6, bfVals[layerIdx - 1]);
             }
 
-            clSetKernelArg1f(clKernelApplyDeltas, 8, learningRate);
+            clSetKernelArg1f(kern, 7, learningRate);
+            clSetKernelArg1i(kern, 8, size);
 
             end(pEntryBackApplySetup);
 
             begin(pEntryBackApplyRun);
-            runKernel(clKernelApplyDeltas, layer.getNodeCount(), size);
+            if (tiled) runKernelTiled(kern, layer.getEdgeCount(), layer.getNodeCount());
+            else runKernel(kern, layer.getEdgeCount(), layer.getNodeCount());
             end(pEntryBackApplyRun);
 
         }
 
     }
 
-    private void shuffleBuffers(NNetwork network, int items, FloatBuffer dInputs, FloatBuffer dTargets) {
-
-        final var order = IntStream.range(0, items).boxed()
-                .collect(Collectors.toCollection(() -> new ArrayList<>(items)));
-
-        Collections.shuffle(order);
-
-        dInputs.mark();
-        dTargets.mark();
-
-        final var si = network.getInputCount();
-        final var so = network.getOutputCount();
-        final var sInputs = BufferUtils.createFloatBuffer(dInputs.remaining());
-        final var sTargets = BufferUtils.createFloatBuffer(dTargets.remaining());
-        sInputs.put(dInputs.asReadOnlyBuffer());
-        sTargets.put(dTargets.asReadOnlyBuffer());
-        sInputs.clear(); sTargets.clear();
-
-        for (int i = 0; i < items; i++) {
-            final var idx = order.get(i);
-            for (int j = 0; j < si; j++) dInputs.put(sInputs.get());
-            for (int j = 0; j < so; j++) dTargets.put(sTargets.get());
-        }
-
-        if (Stream.of(sInputs, sTargets, dInputs, dTargets).anyMatch(floatBuffer -> floatBuffer.remaining() > 0))
-            throw new IllegalStateException();
-
-        dInputs.reset();
-        dTargets.reset();
-
-    }
-
     private long createBuffer(long flags, int size) {
         final var buffer = clCreateBuffer(clContext.get(), flags, size, errBuffer);
         checkCLError(errBuffer);
@@ -384,31 +854,102 @@ public class NNPlatformOpenCL2d implements NNPlatform {
         return buffers;
     }
 
-    private long[] createBuffers(NNetwork network, long flags, Function<NNLayer, FloatBuffer> bf) {
-        final var buffers = new long[network.getLayers().size()];
-        final var layers = network.getLayers();
-        for (int i = 0; i < layers.size(); i++) {
-            buffers[i] = clCreateBuffer(clContext.get(), flags, bf.apply(layers.get(i)), errBuffer);
-            checkCLError(errBuffer);
-        }
-        return buffers;
+    private void writeBuffer(long dst, FloatBuffer data, int size) {
+        final var slice = data.slice(data.position(), size);
+        checkCLError(clEnqueueWriteBuffer(clCommandQueue, dst, true, 0, slice, null, null));
     }
 
-    private void updateBuffers(NNetwork network, long[] src, Function<NNLayer, FloatBuffer> bf) {
-        final var layers = network.getLayers();
-        for (int i = 0; i < layers.size(); i++) {
-            final var buffer = bf.apply(layers.get(i));
-            buffer.clear();
-            checkCLError(clEnqueueReadBuffer(clCommandQueue, src[i], true, 0, buffer, null, null));
-            buffer.clear();
-        }
+    private void releaseBuffers(long[] buffers) {
+        if (buffers == null) return;
+        for (final var bf : buffers) checkCLError(clReleaseMemObject(bf));
     }
 
     private void runKernel(long clKernel, int itemCount0, int itemCount1) {
         workSize.put(0, itemCount0);
         workSize.put(1, itemCount1);
         checkCLError(clEnqueueNDRangeKernel(clCommandQueue, clKernel, 2, null, workSize, null, null, null));
-        checkCLError(clFinish(clCommandQueue));
+    }
+
+    /**
+     * Runs a tiled kernel in work groups of the tile size squared, rounding the global size up to whole tiles.
+     */
+    private void runKernelTiled(long clKernel, int itemCount0, int itemCount1) {
+        workSize.put(0, (itemCount0 + tileSize - 1) / tileSize * tileSize);
+        workSize.put(1, (itemCount1 + tileSize - 1) / tileSize * tileSize);
+        localSize.put(0, tileSize);
+        localSize.put(1, tileSize);
+        checkCLError(clEnqueueNDRangeKernel(clCommandQueue, clKernel, 2, null, workSize, localSize, null, null));
+    }
+
+    /**
+     * Enqueues a marker on the compute queue and returns its event, which completes once all commands
+     * enqueued on it so far have completed. The queue is flushed, so the transfer queue can wait for it.
+     */
+    private long marker() {
+        checkCLError(clEnqueueMarker(clCommandQueue, eventBuffer));
+        checkCLError(clFlush(clCommandQueue));
+        return eventBuffer.get(0);
+    }
+
+    /**
+     * Enqueues a non-blocking read of the given device buffer into the destination on the transfer queue,
+     * starting once all commands enqueued on the compute queue so far have completed, and returns its event.
+     * The destination must not be accessed until the event has completed.
+     */
+    private long readAsync(long bfSrc, FloatBuffer dst) {
+        final var computed = marker();
+        waitList.put(0, computed);
+        checkCLError(clEnqueueReadBuffer(clTransferQueue, bfSrc, false, 0, dst, waitList, eventBuffer));
+        checkCLError(clReleaseEvent(computed));
+        checkCLError(clFlush(clTransferQueue));
+        return eventBuffer.get(0);
+    }
+
+    /**
+     * Enqueues a non-blocking write of the given number of values from the data into the device buffer
+     * on the transfer queue, after the events in the wait list if there is one, and returns its event.
+     * The data must not be modified until the event has completed.
+     */
+    private long writeAsync(long bfDst, FloatBuffer data, int size, PointerBuffer wait) {
+        final var slice = data.slice(data.position(), size);
+        checkCLError(clEnqueueWriteBuffer(clTransferQueue, bfDst, false, 0, slice, wait, eventBuffer));
+        checkCLError(clFlush(clTransferQueue));
+        return eventBuffer.get(0);
+    }
+
+    private void await(long event, SimpleCyclicProfilerEntry deviceEntry) {
+        await(event, event, deviceEntry);
+    }
+
+    /**
+     * Waits for the last of the given commands of the transfer queue to complete, records the device time
+     * from the start of the first to the end of the last in the given entry, and releases both events.
+     * Does nothing if the last event is -1.
+     */
+    private void await(long first, long last, SimpleCyclicProfilerEntry deviceEntry) {
+        if (last == -1) return;
+        checkCLError(clWaitForEvents(last));
+        if (deviceEntry != null) {
+            checkCLError(clGetEventProfilingInfo(first, CL_PROFILING_COMMAND_START, timeBuffer, null));
+            final var start = timeBuffer.get(0);
+            checkCLError(clGetEventProfilingInfo(last, CL_PROFILING_COMMAND_END, timeBuffer, null));
+            deviceEntry.put(timeBuffer.get(0) - start);
+        }
+        if (first != last) release(first);
+        release(last);
+    }
+
+    private void release(long event) {
+        if (event != -1) checkCLError(clReleaseEvent(event));
+    }
+
+    /**
+     * Whether the tiled kernels should be used for a result of the given rows and columns, each summed over
+     * the given depth. They only pay off if all of these fill at least one tile, as they load every value
+     * once per tile instead of once per work item, but leave the items outside the result idle.
+     */
+    private boolean useTiled(int rows, int cols, int depth) {
+        return tileSize > 1 && rows >= tileSize && cols >= tileSize && depth >= tileSize;
     }
 
     private void checkContext(boolean inited) {
@@ -416,6 +957,25 @@ public class NNPlatformOpenCL2d implements NNPlatform {
         if ((clCommandQueue == -1) == inited) throw new IllegalStateException();
     }
 
+    private void checkInput(NNByteInput input, int expectedSize) {
+        if (input.size() < expectedSize) {
+            throw new IllegalArgumentException("Size of input data not as expected ("
+                    + input.size() + " != " + expectedSize + ")");
+        }
+    }
+
+    private void checkSource(NNBatchSource source, NNetwork network) {
+        if (source.getInputSize() != network.getInputCount() || source.getTargetSize() != network.getOutputCount()) {
+            throw new IllegalArgumentException("Sample sizes of batch source do not match the network ("
+                    + source.getInputSize() + "/" + source.getTargetSize() + " != "
+                    + network.getInputCount() + "/" + network.getOutputCount() + ")");
+        }
+    }
+
+    private void checkBatchSize(int batchSize) {
+        if (batchSize == 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+    }
+
     private void checkBuffer(FloatBuffer buffer, int expectedSize) {
         if (buffer.remaining() < expectedSize) {
             throw new IllegalArgumentException("Remaining data in buffer not as expected ("
@@ -462,14 +1022,26 @@ public class NNPlatformOpenCL2d implements NNPlatform {
 
         checkContext(true);
 
+        List.copyOf(sessions).forEach(NNSession::close);
+        deviceCache.dispose();
+
         checkCLError(clReleaseCommandQueue(clCommandQueue));
+        checkCLError(clReleaseCommandQueue(clTransferQueue));
         for (long k : clKernelForward) checkCLError(clReleaseKernel(k));
         for (long k : clKernelBackH) checkCLError(clReleaseKernel(k));
         for (long k : clKernelBackO) checkCLError(clReleaseKernel(k));
+        for (long k : clKernelForwardTiled) checkCLError(clReleaseKernel(k));
+        for (long k : clKernelBackHTiled) checkCLError(clReleaseKernel(k));
         checkCLError(clReleaseKernel(clKernelApplyDeltas));
+        checkCLError(clReleaseKernel(clKernelApplyDeltasTiled));
+        checkCLError(clReleaseKernel(clKernelDequantize));
+        checkCLError(clReleaseKernel(clKernelGather));
+        checkCLError(clReleaseKernel(clKernelGatherDequantize));
         checkCLError(clReleaseProgram(clProgram));
+        checkCLError(clReleaseMemObject(clActTable));
 
         clCommandQueue = -1;
+        clTransferQueue = -1;
 
     }
 
@@ -479,9 +1051,13 @@ public class NNPlatformOpenCL2d implements NNPlatform {
         this.pEntryPredictSetup = pGroup.entry("predict_setup");
         this.pEntryPredictReadResults = pGroup.entry("predict_readResults");
         this.pEntryPredictFeedForward = pGroup.entry("predict_feedForward");
+        this.pEntryPredictWait = pGroup.entry("predict_wait");
         this.pEntryTrainSetup = pGroup.entry("train_setup");
         this.pEntryTrainFeedForward = pGroup.entry("train_feedForward");
         this.pEntryTrainBackProp = pGroup.entry("train_backProp");
+        this.pEntryTrainWait = pGroup.entry("train_wait");
+        this.pEntryTransferUpload = pGroup.entry("transfer_upload");
+        this.pEntryTransferRead = pGroup.entry("transfer_read");
         this.pEntryForwardSetup = pGroup.entry("forward_setup");
         this.pEntryForwardRun = pGroup.entry("forward_run");
         this.pEntryBackOutSetup = pGroup.entry("backprop_out_setup");
@@ -498,9 +1074,13 @@ public class NNPlatformOpenCL2d implements NNPlatform {
         this.pEntryPredictSetup = null;
         this.pEntryPredictReadResults = null;
         this.pEntryPredictFeedForward = null;
+        this.pEntryPredictWait = null;
         this.pEntryTrainSetup = null;
         this.pEntryTrainFeedForward = null;
         this.pEntryTrainBackProp = null;
+        this.pEntryTrainWait = null;
+        this.pEntryTransferUpload = null;
+        this.pEntryTransferRead = null;
         this.pEntryForwardSetup = null;
         this.pEntryForwardRun = null;
         this.pEntryBackOutSetup = null;
@@ -0,0 +1,71 @@
+package dev.m00nl1ght.nnLoom;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A network bound to a platform, holding the workspaces needed to run it across many calls.
+ * Workspaces are allocated on first use and only grow when a larger batch or data set is
+ * passed, so repeated calls with small batches do not allocate anything.
+ *
+ * The weights and biases are still owned by the layers of the network. The java platforms read them
+ * from the layers on every call, while the OpenCL platforms keep them in device memory across calls and
+ * sessions, only uploading tensors that changed, and read them back once the host requests them.
+ * A session is not thread-safe, and must be closed to release its resources before the platform is disposed.
+ */
+public interface NNSession extends AutoCloseable {
+
+    NNetwork getNetwork();
+
+    NNPlatform getPlatform();
+
+    /**
+     * Returns the outputs for the given inputs. The returned buffer is owned by this session
+     * and only valid until the next call to predict.
+     */
+    FloatBuffer predict(int inputCount, FloatBuffer input, int batchSize);
+
+    /**
+     * Writes the outputs for the given inputs into the given buffer, starting at its current position,
+     * and advances the position past them. Heap buffers are supported, but direct buffers avoid
+     * a copy on the OpenCL platforms.
+     */
+    void predict(int inputCount, FloatBuffer input, int batchSize, FloatBuffer output);
+
+    /**
+     * Writes the outputs for the given inputs into the given array, starting at the given offset.
+     */
+    default void predict(int inputCount, FloatBuffer input, int batchSize, float[] output, int offset) {
+        predict(inputCount, input, batchSize, FloatBuffer.wrap(output, offset, output.length - offset));
+    }
+
+    /**
+     * Same as {@link #predict(int, FloatBuffer, int, FloatBuffer)}, with inputs stored as bytes.
+     */
+    void predict(int inputCount, NNByteInput input, int batchSize, FloatBuffer output);
+
+    default void train(int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+        train(inputCount, input, targets, epochs, batchSize, learningRate, null);
+    }
+
+    /**
+     * Trains on the given samples, visiting them in the order given by the shuffle in each epoch,
+     * or in their stored order if it is null.
+     */
+    void train(int inputCount, FloatBuffer input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle);
+
+    default void train(int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate) {
+        train(inputCount, input, targets, epochs, batchSize, learningRate, null);
+    }
+
+    void train(int inputCount, NNByteInput input, FloatBuffer targets, int epochs, int batchSize, float learningRate, NNShuffle shuffle);
+
+    /**
+     * Trains for the given number of epochs on the batches of the given source, see {@link NNBatchSource}.
+     * The source is not closed afterwards.
+     */
+    void train(NNBatchSource source, int epochs, float learningRate);
+
+    @Override
+    void close();
+
+}
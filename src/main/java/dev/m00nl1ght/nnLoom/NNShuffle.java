@@ -0,0 +1,48 @@
+package dev.m00nl1ght.nnLoom;
+
+import java.util.SplittableRandom;
+
+/**
+ * Shuffles the training samples once per epoch, as a permutation of their indices.
+ * The platforms gather the samples of each batch through the permutation, so the data itself
+ * is never moved or copied, and each epoch only costs one int per sample.
+ * The permutation of an epoch only depends on the seed and the epoch, which makes training reproducible.
+ */
+public final class NNShuffle {
+
+    private static final long EPOCH_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    private NNShuffle(long seed) {
+        this.seed = seed;
+    }
+
+    public static NNShuffle seeded(long seed) {
+        return new NNShuffle(seed);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Fills the given array with the permutation of the indices 0 to order.length - 1 for the given epoch.
+     */
+    public int[] permutation(int epoch, int[] order) {
+        final var random = new SplittableRandom(seed + epoch * EPOCH_GAMMA);
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        for (int i = order.length - 1; i > 0; i--) {
+            final var j = random.nextInt(i + 1);
+            final var t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    public int[] permutation(int epoch, int count) {
+        return permutation(epoch, new int[count]);
+    }
+
+}
@@ -0,0 +1,105 @@
+package dev.m00nl1ght.nnLoom;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable copy of the structure and parameters of a network at one point in time.
+ * Training the network afterwards does not affect the snapshot, so it can be shared freely
+ * between threads, see {@link NNPlatformJava#predict(NNSnapshot, int, FloatBuffer, int, FloatBuffer)}.
+ */
+public final class NNSnapshot {
+
+    private final int inputCount;
+    private final List<Layer> layers;
+    private final ActivationPrecision activationPrecision;
+
+    private NNSnapshot(NNetwork network) {
+        this.inputCount = network.getInputCount();
+        this.layers = network.getLayers().stream().map(Layer::new).toList();
+        this.activationPrecision = network.getActivationPrecision();
+    }
+
+    public static NNSnapshot of(NNetwork network) {
+        return new NNSnapshot(Objects.requireNonNull(network));
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public List<Layer> getLayers() {
+        return layers;
+    }
+
+    public int getOutputCount() {
+        return layers.get(layers.size() - 1).getNodeCount();
+    }
+
+    public ActivationPrecision getActivationPrecision() {
+        return activationPrecision;
+    }
+
+    public static final class Layer {
+
+        private final int nodeCount;
+        private final int edgeCount;
+        private final Activation activation;
+        private final float[] weights;
+        private final float[] biases;
+
+        private Layer(NNLayer layer) {
+            this.nodeCount = layer.getNodeCount();
+            this.edgeCount = layer.getEdgeCount();
+            this.activation = layer.getActivation();
+            this.weights = copy(layer.getWeights());
+            this.biases = copy(layer.getBiases());
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public int getEdgeCount() {
+            return edgeCount;
+        }
+
+        public Activation getActivation() {
+            return activation;
+        }
+
+        /**
+         * Returns a new read-only view of the weights of this layer.
+         */
+        public FloatBuffer getWeights() {
+            return FloatBuffer.wrap(weights).asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns a new read-only view of the biases of this layer.
+         */
+        public FloatBuffer getBiases() {
+            return FloatBuffer.wrap(biases).asReadOnlyBuffer();
+        }
+
+        float[] weightArray() {
+            return weights;
+        }
+
+        float[] biasArray() {
+            return biases;
+        }
+
+        /**
+         * Copies the data of the tensor without invalidating its other copies, see {@link NNTensor#view()}.
+         */
+        private static float[] copy(NNTensor tensor) {
+            final var array = new float[tensor.size()];
+            tensor.view().get(0, array);
+            return array;
+        }
+
+    }
+
+}
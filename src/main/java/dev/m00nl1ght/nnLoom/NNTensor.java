@@ -0,0 +1,173 @@
+package dev.m00nl1ght.nnLoom;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Objects;
+
+/**
+ * Fixed-size float storage used for the parameters of a layer.
+ * The data lives in a heap array that the java platform works on directly, and is mirrored
+ * into a direct buffer on demand for native APIs such as OpenCL. Only one of both copies is
+ * current at any time, the other one is refreshed lazily when it is requested.
+ *
+ * Platforms may also keep a copy outside of the host memory, such as in device memory, and update it
+ * without writing it back. Both host copies are then refreshed from that {@link Mirror} once requested.
+ * The version is incremented whenever the data may have changed, so platforms can tell whether their copy is current.
+ */
+public final class NNTensor {
+
+    private final int size;
+    private float[] array;
+    private FloatBuffer buffer;
+
+    private boolean arrayStale = false;
+    private boolean bufferStale = true;
+
+    private Mirror mirror;
+    private int version;
+
+    public NNTensor(int size) {
+        if (size < 0) throw new IllegalArgumentException("Invalid tensor size: " + size);
+        this.size = size;
+        this.array = new float[size];
+    }
+
+    private NNTensor(FloatBuffer buffer) {
+        this.size = buffer.remaining();
+        this.buffer = buffer.slice();
+        this.arrayStale = true;
+        this.bufferStale = false;
+    }
+
+    /**
+     * Creates a tensor that uses the remaining content of the given buffer as its direct buffer, without copying it,
+     * for example a memory-mapped region of a file. The heap array is only allocated once it is requested.
+     * The buffer must be direct and in native byte order. If it is read-only, it is copied once {@link #buffer()} is called.
+     */
+    public static NNTensor wrap(FloatBuffer buffer) {
+        if (!buffer.isDirect() || buffer.order() != ByteOrder.nativeOrder())
+            throw new IllegalArgumentException("Tensor buffer must be direct and in native byte order");
+        return new NNTensor(buffer);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the heap array holding the data of this tensor.
+     * It may be read and written, the direct buffer is refreshed from it when requested next.
+     */
+    public float[] array() {
+        final var current = arrayView();
+        bufferStale = true;
+        version++;
+        return current;
+    }
+
+    /**
+     * Returns a direct buffer holding the data of this tensor, with position 0 and limit at its size.
+     * It may be read and written, the heap array is refreshed from it when requested next.
+     */
+    public FloatBuffer buffer() {
+        sync();
+        final var current = directView();
+        if (current.isReadOnly()) {
+            buffer = BufferUtils.createFloatBuffer(size).put(0, current, 0, size);
+        }
+        arrayStale = true;
+        version++;
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a read-only view of whichever copy of the data is current, without invalidating the other one.
+     */
+    FloatBuffer view() {
+        sync();
+        return arrayStale ? buffer.duplicate().clear().asReadOnlyBuffer() : FloatBuffer.wrap(array).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the heap array after refreshing it if needed, without invalidating the direct buffer
+     * or changing the version. It must not be written to, use {@link #array()} for that.
+     */
+    float[] arrayView() {
+        sync();
+        if (array == null) {
+            array = new float[size];
+        }
+        if (arrayStale) {
+            buffer.get(0, array);
+            arrayStale = false;
+        }
+        return array;
+    }
+
+    /**
+     * Returns the direct buffer after refreshing it if needed, without invalidating the heap array
+     * or changing the version. It is read-only if the tensor wraps a read-only buffer, and must not be written to.
+     */
+    FloatBuffer directView() {
+        sync();
+        if (buffer == null || (bufferStale && buffer.isReadOnly())) {
+            buffer = BufferUtils.createFloatBuffer(size);
+        }
+        if (bufferStale) {
+            buffer.put(0, array);
+            bufferStale = false;
+        }
+        return buffer.duplicate().clear();
+    }
+
+    /**
+     * Returns the version of the data, which changes whenever it may have been modified.
+     */
+    int version() {
+        return version;
+    }
+
+    /**
+     * Records that the given mirror now holds the current data, and returns the new version.
+     * The host copies are refreshed from it once they are requested next.
+     */
+    int mirrored(Mirror mirror) {
+        this.mirror = Objects.requireNonNull(mirror);
+        return ++version;
+    }
+
+    /**
+     * Refreshes the host copies from the mirror holding the current data, if there is one.
+     */
+    void sync() {
+        if (mirror == null) return;
+        final var source = mirror;
+        mirror = null;
+        if (buffer == null || buffer.isReadOnly()) buffer = BufferUtils.createFloatBuffer(size);
+        source.read(buffer.clear());
+        bufferStale = false;
+        arrayStale = true;
+    }
+
+    /**
+     * Returns whether the given mirror holds the current data, instead of the host copies.
+     */
+    boolean isMirroredBy(Mirror mirror) {
+        return this.mirror == mirror;
+    }
+
+    /**
+     * A copy of the data kept by a platform outside of the host memory.
+     */
+    interface Mirror {
+
+        /**
+         * Reads the data into the given direct buffer, from position 0 up to the size of the tensor.
+         */
+        void read(FloatBuffer dst);
+
+    }
+
+}
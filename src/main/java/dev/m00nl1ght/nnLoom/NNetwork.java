@@ -2,16 +2,19 @@ package dev.m00nl1ght.nnLoom;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Random;
 
 public class NNetwork {
 
     private final int inputCount;
     private final List<NNLayer> layers;
+    private final ActivationPrecision activationPrecision;
 
-    private NNetwork(int inputCount, List<NNLayer> layers) {
+    private NNetwork(int inputCount, List<NNLayer> layers, ActivationPrecision activationPrecision) {
         this.inputCount = inputCount;
         this.layers = List.copyOf(layers);
+        this.activationPrecision = Objects.requireNonNull(activationPrecision);
     }
 
     public int getInputCount() {
@@ -26,6 +29,26 @@ public class NNetwork {
         return layers.get(layers.size() - 1).getNodeCount();
     }
 
+    public ActivationPrecision getActivationPrecision() {
+        return activationPrecision;
+    }
+
+    /**
+     * Returns a network sharing the layers (and with that the weights and biases) of this one,
+     * but evaluating the activation functions with the given precision.
+     */
+    public NNetwork withActivationPrecision(ActivationPrecision activationPrecision) {
+        if (activationPrecision == this.activationPrecision) return this;
+        return new NNetwork(inputCount, layers, activationPrecision);
+    }
+
+    /**
+     * Returns an immutable copy of the current parameters of this network, see {@link NNSnapshot}.
+     */
+    public NNSnapshot snapshot() {
+        return NNSnapshot.of(this);
+    }
+
     public void init(Random random) {
         for (final var layer : layers) {
             layer.init(random);
@@ -41,6 +64,7 @@ public class NNetwork {
 
         private final int inputNodes;
         private final List<NNLayer> layers = new ArrayList<>();
+        private ActivationPrecision activationPrecision = ActivationPrecision.Exact;
 
         private Builder(int inputNodes) {
             this.inputNodes = inputNodes;
@@ -48,15 +72,32 @@ public class NNetwork {
 
         public NNetwork build() {
             if (layers.isEmpty()) throw new IllegalStateException();
-            return new NNetwork(inputNodes, layers);
+            return new NNetwork(inputNodes, layers, activationPrecision);
+        }
+
+        public Builder activationPrecision(ActivationPrecision activationPrecision) {
+            this.activationPrecision = Objects.requireNonNull(activationPrecision);
+            return this;
         }
 
         public Builder layerFC(int nodeCount, Activation activation, Initialisation initialisation) {
-            final int edgeCount = layers.isEmpty() ? inputNodes : layers.get(layers.size() - 1).getNodeCount();
-            layers.add(new NNLayer(nodeCount, edgeCount, activation, initialisation));
+            layers.add(new NNLayer(nodeCount, nextEdgeCount(), activation, initialisation));
             return this;
         }
 
+        /**
+         * Adds an existing layer, whose edge count must match the node count of the previous layer.
+         */
+        public Builder layer(NNLayer layer) {
+            if (layer.getEdgeCount() != nextEdgeCount()) throw new IllegalArgumentException("Layer does not fit the network");
+            layers.add(layer);
+            return this;
+        }
+
+        private int nextEdgeCount() {
+            return layers.isEmpty() ? inputNodes : layers.get(layers.size() - 1).getNodeCount();
+        }
+
     }
 
 }
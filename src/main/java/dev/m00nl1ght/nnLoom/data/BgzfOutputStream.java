@@ -0,0 +1,120 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip data as a series of independent members of at most 64 KB each (BGZF), which record their
+ * compressed size in a "BC" extra field, so that they can be located and decompressed in parallel.
+ * The result is a valid gzip file for any other decoder. An empty member marks the end of the data.
+ */
+final class BgzfOutputStream extends FilterOutputStream {
+
+    private static final int MAX_INPUT = 0xff00;
+    private static final int MAX_BLOCK = 1 << 16;
+    private static final int HEADER_SIZE = 18;
+    private static final int TRAILER_SIZE = 8;
+
+    private final int level;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[MAX_INPUT];
+    private final byte[] block = new byte[MAX_BLOCK];
+
+    private int buffered;
+    private boolean closed;
+
+    BgzfOutputStream(OutputStream out, int level) {
+        super(out);
+        this.level = level;
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffered == MAX_INPUT) writeBlock();
+        input[buffered++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (buffered == MAX_INPUT) writeBlock();
+            final var n = Math.min(len, MAX_INPUT - buffered);
+            System.arraycopy(b, off, input, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffered > 0) writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (buffered > 0) writeBlock();
+            writeBlock();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Compresses the buffered input into one member, falling back to stored deflate blocks
+     * if it does not fit into 64 KB, which only happens for incompressible data.
+     */
+    private void writeBlock() throws IOException {
+
+        var size = deflate(false);
+        if (size < 0) size = deflate(true);
+
+        crc.reset();
+        crc.update(input, 0, buffered);
+
+        final var total = HEADER_SIZE + size + TRAILER_SIZE;
+        final var header = ByteBuffer.wrap(block, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x1f).put((byte) 0x8b).put((byte) 8).put((byte) 4).putInt(0).put((byte) 0).put((byte) 0xff)
+                .putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2).putShort((short) (total - 1));
+
+        ByteBuffer.wrap(block, HEADER_SIZE + size, TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue()).putInt(buffered);
+
+        out.write(block, 0, total);
+        buffered = 0;
+
+    }
+
+    /**
+     * Deflates the buffered input behind the header, returning the compressed size or -1 if it does not fit.
+     */
+    private int deflate(boolean stored) {
+
+        final var capacity = MAX_BLOCK - HEADER_SIZE - TRAILER_SIZE;
+        deflater.reset();
+        deflater.setLevel(stored ? Deflater.NO_COMPRESSION : level);
+        deflater.setInput(input, 0, buffered);
+        deflater.finish();
+
+        var size = 0;
+        while (!deflater.finished() && size < capacity) {
+            size += deflater.deflate(block, HEADER_SIZE + size, capacity - size);
+        }
+
+        return deflater.finished() ? size : -1;
+
+    }
+
+}
@@ -0,0 +1,179 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Cache for pre-processed data sets, stored as raw float files in a local directory.
+ *
+ * Each entry is keyed by a SHA-256 hash of its name, the pre-processing parameters and the contents of
+ * the source files, so changing any of them produces a new entry, and the previous entry with the same
+ * name is deleted. Valid entries are memory-mapped instead of being decoded again.
+ * The files are little-endian, on big-endian hosts the cache is bypassed.
+ */
+public final class DatasetCache {
+
+    private static final int MAGIC = 0x43444E4E; // "NNDC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HASH_OFFSET = 16;
+    private static final int HASH_SIZE = 32;
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final Path directory;
+
+    public DatasetCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the cached data for the given name, parameters and source files, or computes it with the given loader
+     * and stores it if there is no valid entry. Cached data is returned as a read-only memory-mapped buffer,
+     * computed data is returned as given by the loader, even if it can not be stored. The parameters should describe
+     * all pre-processing the loader does, for example the normalisation and encoding used.
+     */
+    public FloatBuffer get(String name, String params, Supplier<FloatBuffer> loader, Path... sources) {
+
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) return loader.get();
+
+        try {
+
+            final var key = key(name, params, sources);
+            final var file = directory.resolve(name + "-" + HexFormat.of().formatHex(key, 0, 8) + ".bin");
+
+            if (Files.isRegularFile(file)) {
+                final var cached = map(file, key);
+                if (cached != null) return cached;
+            }
+
+            final var data = loader.get();
+            try {
+                Files.createDirectories(directory);
+                deleteEntries(name);
+                write(file, key, data.slice());
+            } catch (IOException e) {
+                System.out.println("Failed to cache dataset in " + file + ": " + e);
+            }
+
+            return data;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to access dataset cache in " + directory, e);
+        }
+
+    }
+
+    private static byte[] key(String name, String params, Path[] sources) throws IOException {
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update((VERSION + "\0" + name + "\0" + params + "\0").getBytes(StandardCharsets.UTF_8));
+
+        final var block = ByteBuffer.allocate(BLOCK_SIZE);
+        for (final var source : sources) {
+            try (final var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                digest.update(ByteBuffer.allocate(8).putLong(0, channel.size()));
+                while (channel.read(block.clear()) >= 0) {
+                    digest.update(block.flip());
+                }
+            }
+        }
+
+        return digest.digest();
+
+    }
+
+    /**
+     * Maps the data of the given entry, or returns null if it is incomplete or does not match the key.
+     */
+    private static FloatBuffer map(Path file, byte[] key) throws IOException {
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            if (channel.size() < HEADER_SIZE) return null;
+            final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+
+            final var hash = new byte[HASH_SIZE];
+            header.get(HASH_OFFSET, hash);
+            final var count = header.getLong(8);
+
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || !Arrays.equals(hash, key)) return null;
+            if (count < 0 || HEADER_SIZE + 4 * count != channel.size() || 4 * count > Integer.MAX_VALUE) return null;
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4 * count)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        }
+    }
+
+    /**
+     * Writes the entry to a new temporary file first, which is then moved into place, so that processes
+     * filling the same entry at once do not interfere and readers never map a partial entry.
+     */
+    private void write(Path file, byte[] key, FloatBuffer data) throws IOException {
+
+        final var temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+
+            try (final var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+
+                final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, data.remaining()).put(HASH_OFFSET, key);
+                while (header.hasRemaining()) channel.write(header);
+
+                final var block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (data.hasRemaining()) {
+                    final var n = Math.min(BLOCK_SIZE / 4, data.remaining());
+                    block.clear().asFloatBuffer().put(data.slice().limit(n));
+                    data.position(data.position() + n);
+                    block.limit(4 * n);
+                    while (block.hasRemaining()) channel.write(block);
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+    }
+
+    /**
+     * Deletes all entries with the given name, ignoring files that are in use and can not be deleted.
+     */
+    private void deleteEntries(String name) throws IOException {
+        try (final var files = Files.newDirectoryStream(directory, name + "-" + "?".repeat(16) + ".bin")) {
+            for (final var file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+}
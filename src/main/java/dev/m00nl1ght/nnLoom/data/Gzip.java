@@ -0,0 +1,250 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompression of gzip files into memory.
+ *
+ * Files made of blocks that record their compressed size in a "BC" extra field (BGZF, as written by
+ * bgzip and {@link IdxWriter#createGzip}) are indexed first, then the blocks are inflated in parallel,
+ * each straight into its place in the target buffer. Other gzip files, including concatenated members,
+ * can only be split by inflating them, so they are decompressed sequentially.
+ */
+final class Gzip {
+
+    private static final int ID1 = 0x1f;
+    private static final int ID2 = 0x8b;
+    private static final int CM_DEFLATE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int BLOCKS_PER_TASK = 16;
+    private static final int STREAM_BUFFER = 1 << 16;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private Gzip() {}
+
+    static boolean isGzip(Path path) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return isGzip(channel);
+        }
+    }
+
+    static boolean isGzip(InputStream input) throws IOException {
+        input.mark(2);
+        final var b0 = input.read();
+        final var b1 = input.read();
+        input.reset();
+        return b0 == ID1 && b1 == ID2;
+    }
+
+    private static boolean isGzip(FileChannel channel) throws IOException {
+        final var head = ByteBuffer.allocate(2);
+        while (head.hasRemaining() && channel.read(head, head.position()) >= 0);
+        return !head.hasRemaining() && Byte.toUnsignedInt(head.get(0)) == ID1 && Byte.toUnsignedInt(head.get(1)) == ID2;
+    }
+
+    /**
+     * Returns a stream of the decompressed contents, which also decodes concatenated members.
+     */
+    static InputStream decode(InputStream input) throws IOException {
+        return new GZIPInputStream(input, STREAM_BUFFER);
+    }
+
+    /**
+     * Decompresses the whole file into a new direct big-endian buffer, which must not exceed 2 GB.
+     * BGZF files are decompressed by tasks in the given pool, other files on the calling thread.
+     */
+    static ByteBuffer decompress(Path path, ForkJoinPool pool) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            if (!isGzip(channel)) throw new IOException("Not a gzip file: " + path);
+            if (channel.size() > MAX_SIZE) return decompressStream(channel);
+
+            final var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final var blocks = blocks(data);
+            return blocks == null ? decompressStream(channel) : decompressBlocks(data, blocks, pool);
+
+        }
+    }
+
+    /**
+     * Indexes the BGZF blocks of the data, or returns null if any member lacks the block size field.
+     */
+    private static ArrayList<Block> blocks(ByteBuffer data) throws IOException {
+
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        final var blocks = new ArrayList<Block>();
+        var offset = 0;
+        var output = 0L;
+
+        while (offset < data.limit()) {
+
+            if (data.limit() - offset < 18) return null;
+            if (Byte.toUnsignedInt(data.get(offset)) != ID1 || Byte.toUnsignedInt(data.get(offset + 1)) != ID2
+                    || data.get(offset + 2) != CM_DEFLATE) throw new IOException("Invalid gzip member at " + offset);
+
+            final var flags = data.get(offset + 3);
+            if ((flags & FEXTRA) == 0) return null;
+
+            final var extraSize = Short.toUnsignedInt(data.getShort(offset + 10));
+            final var blockSize = blockSize(data, offset + 12, extraSize);
+            if (blockSize < 0 || offset + blockSize > data.limit()) return null;
+
+            var header = 12 + extraSize;
+            if ((flags & FNAME) != 0) header = skipString(data, offset, header);
+            if ((flags & FCOMMENT) != 0) header = skipString(data, offset, header);
+            if ((flags & FHCRC) != 0) header += 2;
+
+            final var end = offset + blockSize;
+            final var size = Integer.toUnsignedLong(data.getInt(end - 4));
+            blocks.add(new Block(offset + header, blockSize - header - TRAILER_SIZE, output, (int) size, data.getInt(end - 8)));
+
+            output += size;
+            if (output > MAX_SIZE) throw new IOException("Decompressed gzip data exceeds 2 GB");
+            offset = end;
+
+        }
+
+        return blocks;
+
+    }
+
+    /**
+     * Returns the total size of the member from its "BC" extra subfield, or -1 if there is none.
+     */
+    private static int blockSize(ByteBuffer data, int offset, int extraSize) {
+        var pos = offset;
+        while (pos + 4 <= offset + extraSize && pos + 4 <= data.limit()) {
+            final var length = Short.toUnsignedInt(data.getShort(pos + 2));
+            if (data.get(pos) == 'B' && data.get(pos + 1) == 'C' && length == 2 && pos + 6 <= data.limit()) {
+                return Short.toUnsignedInt(data.getShort(pos + 4)) + 1;
+            }
+            pos += 4 + length;
+        }
+        return -1;
+    }
+
+    private static int skipString(ByteBuffer data, int offset, int header) throws IOException {
+        while (offset + header < data.limit() && data.get(offset + header) != 0) header++;
+        if (offset + header >= data.limit()) throw new IOException("Unexpected end of gzip header");
+        return header + 1;
+    }
+
+    private static ByteBuffer decompressBlocks(ByteBuffer data, ArrayList<Block> blocks, ForkJoinPool pool) throws IOException {
+
+        final var last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        final var output = ByteBuffer.allocateDirect(last == null ? 0 : (int) last.output + last.size);
+        final var tasks = (blocks.size() + BLOCKS_PER_TASK - 1) / BLOCKS_PER_TASK;
+
+        try {
+            pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task -> {
+                final var inflater = new Inflater(true);
+                final var crc = new CRC32();
+                try {
+                    final var end = Math.min(blocks.size(), (task + 1) * BLOCKS_PER_TASK);
+                    for (int i = task * BLOCKS_PER_TASK; i < end; i++) {
+                        inflate(data, blocks.get(i), output, inflater, crc);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    inflater.end();
+                }
+            })).join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return output.order(ByteOrder.BIG_ENDIAN);
+
+    }
+
+    private static void inflate(ByteBuffer data, Block block, ByteBuffer output, Inflater inflater, CRC32 crc) throws IOException {
+
+        final var dst = output.slice((int) block.output, block.size);
+        inflater.reset();
+        inflater.setInput(data.slice(block.input, block.inputSize + TRAILER_SIZE));
+
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(dst) == 0 && (inflater.needsInput() || !dst.hasRemaining())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip block at " + block.input, e);
+        }
+
+        crc.reset();
+        crc.update(dst.flip());
+        if (!inflater.finished() || dst.limit() != block.size || (int) crc.getValue() != block.crc)
+            throw new IOException("Corrupt gzip block at " + block.input);
+
+    }
+
+    /**
+     * Decompresses the channel from the start on the calling thread. The buffer is sized from the length stored
+     * at the end of the file, which is exact for files with a single member, and grown as needed otherwise.
+     */
+    private static ByteBuffer decompressStream(FileChannel channel) throws IOException {
+
+        final var trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (trailer.hasRemaining() && channel.read(trailer, channel.size() - 4 + trailer.position()) > 0);
+        final var estimate = trailer.hasRemaining() ? 0 : Integer.toUnsignedLong(trailer.getInt(0));
+
+        var output = ByteBuffer.allocateDirect((int) Math.min(estimate, MAX_SIZE));
+        final var block = new byte[STREAM_BUFFER];
+
+        try (final var input = decode(new BufferedInputStream(Channels.newInputStream(channel.position(0)), STREAM_BUFFER))) {
+            int read;
+            while ((read = input.read(block)) >= 0) {
+                if (output.remaining() < read) {
+                    if (output.capacity() > MAX_SIZE - read) throw new IOException("Decompressed gzip data exceeds 2 GB");
+                    final var grown = ByteBuffer.allocateDirect((int) Math.min(MAX_SIZE, Math.max(2L * output.capacity(), output.capacity() + read)));
+                    output = grown.put(output.flip());
+                }
+                output.put(block, 0, read);
+            }
+        }
+
+        return output.flip().order(ByteOrder.BIG_ENDIAN);
+
+    }
+
+    private static final class Block {
+
+        private final int input;
+        private final int inputSize;
+        private final long output;
+        private final int size;
+        private final int crc;
+
+        private Block(int input, int inputSize, long output, int size, int crc) {
+            this.input = input;
+            this.inputSize = inputSize;
+            this.output = output;
+            this.size = size;
+            this.crc = crc;
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Dataset in the IDX format, memory-mapped from a file.
+ * The header is parsed in place and samples are exposed as read-only views into the mapping,
+ * so opening a file does not read or copy its contents. Files larger than 1 GB are mapped
+ * in several chunks, each holding a whole number of samples.
+ * Gzip-compressed files are decompressed into memory instead, in parallel if they are block-compressed.
+ * Format description: http://yann.lecun.com/exdb/mnist/
+ */
+public final class IdxFile {
+
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final Path path;
+    private final IdxType type;
+    private final int[] dimensions;
+    private final int sampleSize;
+    private final int chunkSamples;
+    private final ByteBuffer[] chunks;
+
+    private IdxFile(Path path, IdxType type, int[] dimensions, ByteBuffer[] chunks, int chunkSamples) {
+        this.path = path;
+        this.type = type;
+        this.dimensions = dimensions;
+        this.sampleSize = Arrays.stream(dimensions).skip(1).reduce(1, Math::multiplyExact);
+        this.chunks = chunks;
+        this.chunkSamples = chunkSamples;
+    }
+
+    /**
+     * Opens the given file, which may be gzip-compressed. Block-compressed files are decompressed
+     * by tasks in the common fork-join pool, see {@link #open(Path, ForkJoinPool)}.
+     */
+    public static IdxFile open(Path path) throws IOException {
+        return open(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Opens the given file, which may be gzip-compressed. Compressed files are decompressed into a direct buffer,
+     * which must not exceed 2 GB. If the file consists of BGZF blocks, as written by {@link IdxWriter#createGzip},
+     * the blocks are decompressed in parallel by tasks in the given pool, otherwise on the calling thread.
+     */
+    public static IdxFile open(Path path, ForkJoinPool pool) throws IOException {
+
+        Objects.requireNonNull(path);
+
+        if (Gzip.isGzip(path)) {
+            final var data = Gzip.decompress(path, pool);
+            final var header = IdxHeader.read(data);
+            checkSize(header, data.limit(), path);
+            return of(path, header, (offset, size) -> data.slice((int) offset, (int) size).order(ByteOrder.BIG_ENDIAN));
+        }
+
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var header = IdxHeader.read(channel);
+            checkSize(header, channel.size(), path);
+            return of(path, header, (offset, size) -> channel.map(FileChannel.MapMode.READ_ONLY, offset, size)
+                    .order(ByteOrder.BIG_ENDIAN));
+        }
+
+    }
+
+    private static void checkSize(IdxHeader header, long fileSize, Path path) throws IOException {
+        final var size = header.size() + header.dimensions[0] * header.sampleBytes();
+        if (size > fileSize)
+            throw new IOException("IDX file is truncated (" + fileSize + " < " + size + "): " + path);
+    }
+
+    private static IdxFile of(Path path, IdxHeader header, ChunkSource source) throws IOException {
+
+        final var dimensions = header.dimensions;
+        final var headerSize = (long) header.size();
+        final var sampleBytes = header.sampleBytes();
+
+        final var chunkSamples = (int) Math.min(dimensions[0], Math.max(1, MAX_CHUNK_SIZE / Math.max(1, sampleBytes)));
+        final var chunkCount = chunkSamples == 0 ? 0 : (dimensions[0] + chunkSamples - 1) / chunkSamples;
+        final var chunks = new ByteBuffer[chunkCount];
+
+        for (int i = 0; i < chunkCount; i++) {
+            final var first = (long) i * chunkSamples;
+            final var count = Math.min(chunkSamples, dimensions[0] - first);
+            chunks[i] = source.get(headerSize + first * sampleBytes, count * sampleBytes);
+        }
+
+        return new IdxFile(path, header.type, dimensions, chunks, chunkSamples);
+
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public IdxType getType() {
+        return type;
+    }
+
+    public int[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    /**
+     * Returns the number of samples, the size of the first dimension.
+     */
+    public int getCount() {
+        return dimensions[0];
+    }
+
+    /**
+     * Returns the number of values per sample, the product of all dimensions but the first.
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Returns a read-only big-endian view of the raw values of the given sample.
+     */
+    public ByteBuffer sample(int idx) {
+        return samples(idx, 1);
+    }
+
+    /**
+     * Returns a read-only big-endian view of the raw values of count consecutive samples.
+     * The samples must not span more than one chunk, which always holds if the file is smaller than 1 GB.
+     */
+    public ByteBuffer samples(int first, int count) {
+        Objects.checkFromIndexSize(first, count, getCount());
+        if (count == 0) return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        final var chunk = first / chunkSamples;
+        final var offset = first - chunk * chunkSamples;
+        if (offset + count > chunkSamples)
+            throw new IllegalArgumentException("Samples [" + first + ", " + (first + count) + ") span several chunks");
+        final var bytes = sampleSize * type.getSize();
+        return chunks[chunk].slice(offset * bytes, count * bytes).asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Converts count consecutive samples to floats and writes them into dst, advancing its position.
+     * Integer values are divided by the given divisor, floating point values are copied as they are.
+     */
+    public void readFloats(int first, int count, float divisor, FloatBuffer dst) {
+
+        Objects.checkFromIndexSize(first, count, getCount());
+
+        var done = 0;
+        while (done < count) {
+            final var idx = first + done;
+            final var n = Math.min(count - done, chunkSamples - idx % chunkSamples);
+            type.readFloats(samples(idx, n), n * sampleSize, divisor, dst);
+            done += n;
+        }
+
+    }
+
+    /**
+     * Reads all samples converted to floats into a new direct buffer, see {@link #readFloats}.
+     */
+    public FloatBuffer readFloats(float divisor) {
+        final var dst = BufferUtils.createFloatBuffer(Math.multiplyExact(getCount(), sampleSize));
+        readFloats(0, getCount(), divisor, dst);
+        return dst.clear();
+    }
+
+    @FunctionalInterface
+    private interface ChunkSource {
+        ByteBuffer get(long offset, long size) throws IOException;
+    }
+
+}
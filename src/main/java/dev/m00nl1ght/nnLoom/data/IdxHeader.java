@@ -0,0 +1,102 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Magic number and dimensions at the start of an IDX file.
+ */
+final class IdxHeader {
+
+    final IdxType type;
+    final int[] dimensions;
+
+    IdxHeader(IdxType type, int[] dimensions) {
+        if (dimensions.length == 0 || dimensions.length > 255)
+            throw new IllegalArgumentException("Invalid IDX rank: " + dimensions.length);
+        for (final var dim : dimensions) {
+            if (dim < 0) throw new IllegalArgumentException("Invalid IDX dimension: " + dim);
+        }
+        this.type = type;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * Reads a header from the current position of the channel.
+     */
+    static IdxHeader read(ReadableByteChannel channel) throws IOException {
+        final var head = readFully(channel, 4);
+        return parse(head, readFully(channel, 4 * rank(head)));
+    }
+
+    /**
+     * Reads a header from the start of the buffer, without changing its position.
+     */
+    static IdxHeader read(ByteBuffer data) throws IOException {
+        final var head = slice(data, 0, 4);
+        return parse(head, slice(data, 4, 4 * rank(head)));
+    }
+
+    private static int rank(ByteBuffer head) throws IOException {
+
+        if (head.get(0) != 0 || head.get(1) != 0)
+            throw new IOException("Invalid IDX magic number");
+
+        final var rank = Byte.toUnsignedInt(head.get(3));
+        if (rank == 0) throw new IOException("IDX file without dimensions");
+        return rank;
+
+    }
+
+    private static IdxHeader parse(ByteBuffer head, ByteBuffer dims) throws IOException {
+
+        final var type = IdxType.of(head.get(2));
+        final var rank = Byte.toUnsignedInt(head.get(3));
+        final var dimensions = new int[rank];
+        for (int i = 0; i < rank; i++) {
+            dimensions[i] = dims.getInt(4 * i);
+            if (dimensions[i] < 0) throw new IOException("Invalid IDX dimension: " + dimensions[i]);
+        }
+
+        return new IdxHeader(type, dimensions);
+
+    }
+
+    void write(WritableByteChannel channel) throws IOException {
+        final var buffer = ByteBuffer.allocate(size()).order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) 0).put((byte) 0).put((byte) type.getCode()).put((byte) dimensions.length);
+        for (final var dim : dimensions) buffer.putInt(dim);
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    int size() {
+        return 4 + 4 * dimensions.length;
+    }
+
+    int sampleSize() {
+        return Arrays.stream(dimensions).skip(1).reduce(1, Math::multiplyExact);
+    }
+
+    long sampleBytes() {
+        return (long) sampleSize() * type.getSize();
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int size) throws IOException {
+        if (data.remaining() < offset + size) throw new IOException("Unexpected end of IDX header");
+        return data.slice(data.position() + offset, size).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int size) throws IOException {
+        final var buffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of IDX header");
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,149 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Sequential reader for data in the IDX format, of any value type and rank.
+ * Samples are read in chunks into a buffer owned by the reader, so only one chunk is held
+ * in memory at a time. Unlike {@link IdxFile}, this also works for sources that can not be
+ * memory-mapped, such as streams or files too large for the available address space.
+ * Gzip-compressed sources are detected by their magic number and decompressed while reading.
+ */
+public final class IdxReader implements Closeable {
+
+    private final ReadableByteChannel channel;
+    private final IdxHeader header;
+    private final int sampleBytes;
+
+    private ByteBuffer buffer;
+    private int remaining;
+
+    private IdxReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.header = IdxHeader.read(channel);
+        this.sampleBytes = Math.toIntExact(header.sampleBytes());
+        this.remaining = header.dimensions[0];
+    }
+
+    public static IdxReader open(Path path) throws IOException {
+        if (!Gzip.isGzip(Objects.requireNonNull(path))) return new IdxReader(Files.newByteChannel(path));
+        return open(Files.newInputStream(path));
+    }
+
+    public static IdxReader open(InputStream input) throws IOException {
+        final var source = Objects.requireNonNull(input).markSupported() ? input : new BufferedInputStream(input);
+        return new IdxReader(Channels.newChannel(Gzip.isGzip(source) ? Gzip.decode(source) : source));
+    }
+
+    public IdxType getType() {
+        return header.type;
+    }
+
+    public int[] getDimensions() {
+        return header.dimensions.clone();
+    }
+
+    /**
+     * Returns the total number of samples, the size of the first dimension.
+     */
+    public int getCount() {
+        return header.dimensions[0];
+    }
+
+    /**
+     * Returns the number of values per sample, the product of all dimensions but the first.
+     */
+    public int getSampleSize() {
+        return header.sampleSize();
+    }
+
+    /**
+     * Returns the number of samples that have not been read yet.
+     */
+    public int getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Reads up to maxSamples of the next samples, and returns a read-only big-endian view of their raw values.
+     * The view is only valid until the next call, and is empty once all samples have been read.
+     */
+    public ByteBuffer read(int maxSamples) throws IOException {
+
+        if (maxSamples <= 0) throw new IllegalArgumentException("Invalid chunk size: " + maxSamples);
+
+        final var count = Math.min(maxSamples, remaining);
+        final var size = Math.multiplyExact(count, sampleBytes);
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        buffer.clear().limit(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of IDX data, "
+                    + (remaining - buffer.position() / Math.max(1, sampleBytes)) + " samples missing");
+        }
+
+        remaining -= count;
+        return buffer.flip().asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+
+    }
+
+    /**
+     * Reads up to maxSamples of the next samples converted to floats into dst, advancing its position.
+     * Integer values are divided by the given divisor, floating point values are copied as they are.
+     * Returns the number of samples read, which is 0 once all samples have been read.
+     */
+    public int readFloats(int maxSamples, float divisor, FloatBuffer dst) throws IOException {
+        final var data = read(maxSamples);
+        final var count = sampleBytes == 0 ? Math.min(maxSamples, remaining) : data.remaining() / sampleBytes;
+        header.type.readFloats(data, count * getSampleSize(), divisor, dst);
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the remaining samples in chunks of up to samplesPerChunk samples,
+     * see {@link #read(int)}. IO errors are rethrown as {@link UncheckedIOException}.
+     */
+    public Iterator<ByteBuffer> chunks(int samplesPerChunk) {
+        if (samplesPerChunk <= 0) throw new IllegalArgumentException("Invalid chunk size: " + samplesPerChunk);
+        return new Iterator<>() {
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (remaining == 0) throw new NoSuchElementException();
+                try {
+                    return read(samplesPerChunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
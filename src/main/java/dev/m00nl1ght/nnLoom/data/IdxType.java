@@ -0,0 +1,108 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Value types of the IDX format, identified by the third byte of the magic number.
+ */
+public enum IdxType {
+
+    UByte(0x08, 1),
+    Byte(0x09, 1),
+    Short(0x0B, 2),
+    Int(0x0C, 4),
+    Float(0x0D, 4),
+    Double(0x0E, 8);
+
+    private static final int CONVERT_BLOCK = 4096;
+
+    private final int code;
+    private final int size;
+
+    IdxType(int code, int size) {
+        this.code = code;
+        this.size = size;
+    }
+
+    public static IdxType of(byte code) throws IOException {
+        for (final var type : values()) {
+            if (type.code == code) return type;
+        }
+        throw new IOException("Unknown IDX data type: " + code);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the size of a single value in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Converts count values of this type from src (big-endian) and writes them into dst.
+     * Integer values are divided by divisor, floating point values are copied as they are.
+     */
+    void readFloats(ByteBuffer src, int count, float divisor, FloatBuffer dst) {
+        switch (this) {
+
+            case UByte, Byte -> {
+                final var table = new float[256];
+                for (int i = 0; i < 256; i++) table[i] = (this == UByte ? i : (byte) i) / divisor;
+                final var block = new byte[Math.min(count, CONVERT_BLOCK)];
+                final var values = new float[block.length];
+                var pos = src.position();
+                for (int done = 0; done < count; done += block.length) {
+                    final var n = Math.min(block.length, count - done);
+                    src.get(pos, block, 0, n);
+                    pos += n;
+                    for (int i = 0; i < n; i++) values[i] = table[block[i] & 0xFF];
+                    dst.put(values, 0, n);
+                }
+            }
+
+            case Short -> {
+                for (int i = 0; i < count; i++) dst.put(src.getShort(src.position() + 2 * i) / divisor);
+            }
+
+            case Int -> {
+                for (int i = 0; i < count; i++) dst.put(src.getInt(src.position() + 4 * i) / divisor);
+            }
+
+            case Float -> dst.put(src.asFloatBuffer().limit(count));
+
+            case Double -> {
+                for (int i = 0; i < count; i++) dst.put((float) src.getDouble(src.position() + 8 * i));
+            }
+
+        }
+    }
+
+    /**
+     * Converts count values from src to this type and writes them into dst (big-endian), both positions
+     * are advanced. Integer values are multiplied by multiplier, rounded and clamped to the range of the type.
+     */
+    void writeFloats(FloatBuffer src, int count, float multiplier, ByteBuffer dst) {
+        for (int i = 0; i < count; i++) {
+            final var v = src.get();
+            switch (this) {
+                case UByte -> dst.put((byte) clamp(Math.round(v * multiplier), 0, 255));
+                case Byte -> dst.put((byte) clamp(Math.round(v * multiplier), -128, 127));
+                case Short -> dst.putShort((short) clamp(Math.round(v * multiplier), -32768, 32767));
+                case Int -> dst.putInt((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round((double) v * multiplier))));
+                case Float -> dst.putFloat(v);
+                case Double -> dst.putDouble(v);
+            }
+        }
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+}
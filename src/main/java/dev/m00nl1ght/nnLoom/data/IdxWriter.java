@@ -0,0 +1,108 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * Sequential writer for data in the IDX format, of any value type and rank.
+ * The header is written immediately, the samples are then appended in any number of calls
+ * and must add up to the size of the first dimension when the writer is closed.
+ */
+public final class IdxWriter implements Closeable {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final IdxHeader header;
+    private final long expected;
+    private final ByteBuffer block;
+
+    private long written;
+
+    private IdxWriter(WritableByteChannel channel, IdxType type, int[] dimensions) throws IOException {
+        this.channel = channel;
+        this.header = new IdxHeader(Objects.requireNonNull(type), dimensions.clone());
+        this.expected = (long) dimensions[0] * header.sampleSize();
+        this.block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.write(channel);
+    }
+
+    public static IdxWriter create(Path path, IdxType type, int... dimensions) throws IOException {
+        final var channel = Files.newByteChannel(Objects.requireNonNull(path),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new IdxWriter(channel, type, dimensions);
+    }
+
+    /**
+     * Creates a gzip-compressed file, written as BGZF blocks of up to 64 KB that {@link IdxFile#open(Path, ForkJoinPool)}
+     * decompresses in parallel. Any gzip decoder can read the file. The level is a {@link Deflater} compression level.
+     */
+    public static IdxWriter createGzip(Path path, int level, IdxType type, int... dimensions) throws IOException {
+        final var output = new BgzfOutputStream(Files.newOutputStream(Objects.requireNonNull(path)), level);
+        return new IdxWriter(Channels.newChannel(output), type, dimensions);
+    }
+
+    public static IdxWriter createGzip(Path path, IdxType type, int... dimensions) throws IOException {
+        return createGzip(path, Deflater.DEFAULT_COMPRESSION, type, dimensions);
+    }
+
+    public static IdxWriter create(OutputStream output, IdxType type, int... dimensions) throws IOException {
+        return new IdxWriter(Channels.newChannel(Objects.requireNonNull(output)), type, dimensions);
+    }
+
+    /**
+     * Appends raw big-endian values of the type of this writer, all remaining bytes of src are written.
+     */
+    public void write(ByteBuffer src) throws IOException {
+        if (src.remaining() % header.type.getSize() != 0)
+            throw new IllegalArgumentException("Data is not a whole number of values");
+        final var count = src.remaining() / header.type.getSize();
+        checkSpace(count);
+        while (src.hasRemaining()) channel.write(src);
+        written += count;
+    }
+
+    /**
+     * Appends all remaining values of src, converted to the type of this writer. For integer types,
+     * values are multiplied by the given multiplier, rounded and clamped to the range of the type,
+     * the inverse of {@link IdxReader#readFloats}. Floating point values are written as they are.
+     */
+    public void writeFloats(FloatBuffer src, float multiplier) throws IOException {
+        checkSpace(src.remaining());
+        final var perBlock = BLOCK_SIZE / header.type.getSize();
+        while (src.hasRemaining()) {
+            final var count = Math.min(perBlock, src.remaining());
+            block.clear();
+            header.type.writeFloats(src, count, multiplier, block);
+            block.flip();
+            while (block.hasRemaining()) channel.write(block);
+            written += count;
+        }
+    }
+
+    private void checkSpace(long values) {
+        if (written + values > expected)
+            throw new IllegalStateException("More values written than declared by the IDX dimensions");
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (written != expected) {
+            throw new IOException("IDX data incomplete, " + written + " of " + expected + " values written");
+        }
+    }
+
+}
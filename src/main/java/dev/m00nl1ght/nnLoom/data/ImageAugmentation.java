@@ -0,0 +1,246 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Random distortions of images, for training on variations of the samples instead of storing augmented copies.
+ *
+ * Shifts, rotations and elastic distortion are combined into one mapping of output to input coordinates,
+ * which is then sampled with bilinear interpolation, so each image is resampled only once. Elastic distortion
+ * follows Simard et al. (2003): a random displacement field, smoothed with a gaussian kernel and scaled.
+ * Gaussian noise is added at the end. Images with several channels are stored as consecutive planes.
+ *
+ * All random values are drawn from the given seed, so the same seed always produces the same distortion.
+ * Instances are immutable and can be used by several threads at once.
+ */
+public final class ImageAugmentation {
+
+    private final int width;
+    private final int height;
+    private final float maxShift;
+    private final float maxRotation;
+    private final float elasticAlpha;
+    private final float[] elasticKernel;
+    private final float noise;
+    private final float background;
+
+    private final ThreadLocal<float[][]> scratch;
+
+    private ImageAugmentation(Builder builder) {
+        this.width = builder.width;
+        this.height = builder.height;
+        this.maxShift = builder.maxShift;
+        this.maxRotation = (float) Math.toRadians(builder.maxRotation);
+        this.elasticAlpha = builder.elasticAlpha;
+        this.elasticKernel = builder.elasticAlpha == 0f ? null : gaussianKernel(builder.elasticSigma);
+        this.noise = builder.noise;
+        this.background = builder.background;
+        this.scratch = ThreadLocal.withInitial(() -> new float[4][width * height]);
+    }
+
+    public static Builder builder(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid image size");
+        return new Builder(width, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads one image with the given number of channels from src, starting at srcOffset,
+     * and writes the distorted image to dst, starting at dstOffset. Both buffers are accessed
+     * with absolute operations only, so their positions are not changed.
+     */
+    public void apply(FloatBuffer src, int srcOffset, FloatBuffer dst, int dstOffset, int channels, long seed) {
+
+        final var random = new SplittableRandom(seed);
+        final var buffers = scratch.get();
+        final var image = buffers[0];
+        final var mapX = buffers[1];
+        final var mapY = buffers[2];
+        final var temp = buffers[3];
+        final var size = width * height;
+
+        final var shiftX = maxShift == 0f ? 0f : (float) random.nextDouble(-maxShift, maxShift);
+        final var shiftY = maxShift == 0f ? 0f : (float) random.nextDouble(-maxShift, maxShift);
+        final var angle = maxRotation == 0f ? 0f : (float) random.nextDouble(-maxRotation, maxRotation);
+
+        if (elasticKernel != null) {
+            displacementField(random, mapX, temp);
+            displacementField(random, mapY, temp);
+        } else {
+            Arrays.fill(mapX, 0f);
+            Arrays.fill(mapY, 0f);
+        }
+
+        final var cos = (float) Math.cos(angle);
+        final var sin = (float) Math.sin(angle);
+        final var cx = (width - 1) * 0.5f;
+        final var cy = (height - 1) * 0.5f;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final var i = y * width + x;
+                final var u = x - cx - shiftX;
+                final var v = y - cy - shiftY;
+                mapX[i] += cos * u + sin * v + cx;
+                mapY[i] += cos * v - sin * u + cy;
+            }
+        }
+
+        for (int c = 0; c < channels; c++) {
+            src.get(srcOffset + c * size, image, 0, size);
+            for (int i = 0; i < size; i++) {
+                var value = sample(image, mapX[i], mapY[i]);
+                if (noise != 0f) value += noise * (float) random.nextGaussian();
+                temp[i] = value;
+            }
+            dst.put(dstOffset + c * size, temp, 0, size);
+        }
+
+    }
+
+    private float sample(float[] image, float x, float y) {
+
+        final var x0 = (int) Math.floor(x);
+        final var y0 = (int) Math.floor(y);
+        final var fx = x - x0;
+        final var fy = y - y0;
+
+        final var a = pixel(image, x0, y0);
+        final var b = pixel(image, x0 + 1, y0);
+        final var c = pixel(image, x0, y0 + 1);
+        final var d = pixel(image, x0 + 1, y0 + 1);
+
+        final var top = a + (b - a) * fx;
+        final var bottom = c + (d - c) * fx;
+        return top + (bottom - top) * fy;
+
+    }
+
+    private float pixel(float[] image, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return background;
+        return image[y * width + x];
+    }
+
+    /**
+     * Fills field with uniform random values in [-1, 1], smoothed by the separable gaussian kernel and scaled by alpha.
+     */
+    private void displacementField(SplittableRandom random, float[] field, float[] temp) {
+
+        for (int i = 0; i < field.length; i++) {
+            field[i] = (float) random.nextDouble(-1d, 1d);
+        }
+
+        final var kernel = elasticKernel;
+        final var r = kernel.length / 2;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                var sum = 0f;
+                for (int k = Math.max(-r, -x); k <= Math.min(r, width - 1 - x); k++) {
+                    sum += kernel[k + r] * field[y * width + x + k];
+                }
+                temp[y * width + x] = sum;
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                var sum = 0f;
+                for (int k = Math.max(-r, -y); k <= Math.min(r, height - 1 - y); k++) {
+                    sum += kernel[k + r] * temp[(y + k) * width + x];
+                }
+                field[y * width + x] = sum * elasticAlpha;
+            }
+        }
+
+    }
+
+    private static float[] gaussianKernel(float sigma) {
+        final var r = Math.max(1, (int) Math.ceil(3 * sigma));
+        final var kernel = new float[2 * r + 1];
+        var sum = 0f;
+        for (int k = -r; k <= r; k++) {
+            kernel[k + r] = (float) Math.exp(-(k * k) / (2d * sigma * sigma));
+            sum += kernel[k + r];
+        }
+        for (int k = 0; k < kernel.length; k++) kernel[k] /= sum;
+        return kernel;
+    }
+
+    public static class Builder {
+
+        private final int width;
+        private final int height;
+        private float maxShift;
+        private float maxRotation;
+        private float elasticAlpha;
+        private float elasticSigma;
+        private float noise;
+        private float background;
+
+        private Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public ImageAugmentation build() {
+            return new ImageAugmentation(this);
+        }
+
+        /**
+         * Shifts images by up to the given number of pixels along each axis.
+         */
+        public Builder shift(float maxPixels) {
+            if (maxPixels < 0) throw new IllegalArgumentException();
+            this.maxShift = maxPixels;
+            return this;
+        }
+
+        /**
+         * Rotates images around their center by up to the given angle in degrees, in both directions.
+         */
+        public Builder rotation(float maxDegrees) {
+            if (maxDegrees < 0) throw new IllegalArgumentException();
+            this.maxRotation = maxDegrees;
+            return this;
+        }
+
+        /**
+         * Applies elastic distortion with the given scale (in pixels) and smoothness of the displacement field.
+         */
+        public Builder elastic(float alpha, float sigma) {
+            if (alpha < 0 || sigma <= 0) throw new IllegalArgumentException();
+            this.elasticAlpha = alpha;
+            this.elasticSigma = sigma;
+            return this;
+        }
+
+        /**
+         * Adds gaussian noise with the given standard deviation to every value.
+         */
+        public Builder noise(float stddev) {
+            if (stddev < 0) throw new IllegalArgumentException();
+            this.noise = stddev;
+            return this;
+        }
+
+        /**
+         * Sets the value used for pixels that are sampled outside of the source image, 0 by default.
+         */
+        public Builder background(float value) {
+            this.background = value;
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package dev.m00nl1ght.nnLoom.data;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Dataset split into shards, each a pair of IDX files with the inputs and the targets of its samples.
+ * Only the headers are read when opening the dataset, the shards are then opened one at a time
+ * while iterating over them, so the dataset as a whole can be far larger than memory.
+ *
+ * All input files must have the same sample dimensions, and so must all target files,
+ * while the value types and compression may differ between shards.
+ */
+public final class ShardedDataset {
+
+    public static final String INPUT_SUFFIX = ".input.idx";
+    public static final String TARGET_SUFFIX = ".target.idx";
+    public static final String GZIP_SUFFIX = ".gz";
+
+    private final List<Shard> shards;
+    private final int inputSize;
+    private final int targetSize;
+    private final long count;
+
+    private ShardedDataset(List<Shard> shards, int inputSize, int targetSize) {
+        this.shards = List.copyOf(shards);
+        this.inputSize = inputSize;
+        this.targetSize = targetSize;
+        this.count = shards.stream().mapToLong(Shard::getCount).sum();
+    }
+
+    /**
+     * Opens all shards in the given directory, sorted by name. Each shard consists of a file
+     * named NAME{@value #INPUT_SUFFIX} and a file named NAME{@value #TARGET_SUFFIX}, both of which
+     * may instead be gzip-compressed and carry the additional suffix {@value #GZIP_SUFFIX}.
+     */
+    public static ShardedDataset open(Path directory) throws IOException {
+
+        final var inputs = new ArrayList<Path>();
+        try (final var files = Files.newDirectoryStream(directory, "*" + INPUT_SUFFIX + "{," + GZIP_SUFFIX + "}")) {
+            files.forEach(inputs::add);
+        }
+
+        if (inputs.isEmpty()) throw new IOException("No shards found in " + directory);
+        inputs.sort(null);
+
+        final var targets = new ArrayList<Path>(inputs.size());
+        for (final var input : inputs) {
+            final var name = input.getFileName().toString();
+            final var base = name.substring(0, name.lastIndexOf(INPUT_SUFFIX));
+            final var target = input.resolveSibling(base + TARGET_SUFFIX);
+            final var compressed = target.resolveSibling(target.getFileName() + GZIP_SUFFIX);
+            targets.add(Files.exists(target) || !Files.exists(compressed) ? target : compressed);
+        }
+
+        return of(inputs, targets);
+
+    }
+
+    /**
+     * Opens the given shards, with the input and target files at the same index belonging together.
+     */
+    public static ShardedDataset of(List<Path> inputs, List<Path> targets) throws IOException {
+
+        if (inputs.size() != targets.size() || inputs.isEmpty())
+            throw new IllegalArgumentException("Invalid number of shard files");
+
+        final var shards = new ArrayList<Shard>(inputs.size());
+        int[] inputDims = null;
+        int[] targetDims = null;
+
+        for (int i = 0; i < inputs.size(); i++) {
+
+            final var input = readHeader(inputs.get(i));
+            final var target = readHeader(targets.get(i));
+
+            if (input.dimensions[0] != target.dimensions[0])
+                throw new IOException("Sample counts of shard " + inputs.get(i) + " differ ("
+                        + input.dimensions[0] + " != " + target.dimensions[0] + ")");
+
+            inputDims = checkDimensions(inputDims, input, inputs.get(i));
+            targetDims = checkDimensions(targetDims, target, targets.get(i));
+
+            shards.add(new Shard(inputs.get(i), targets.get(i), input.dimensions[0]));
+        }
+
+        return new ShardedDataset(shards, sampleSize(inputDims), sampleSize(targetDims));
+
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the number of input values per sample.
+     */
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Returns the number of target values per sample.
+     */
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * Returns the total number of samples in all shards.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private static IdxHeader readHeader(Path path) throws IOException {
+        if (Gzip.isGzip(path)) {
+            try (final var input = Gzip.decode(Files.newInputStream(path))) {
+                return IdxHeader.read(Channels.newChannel(input));
+            }
+        }
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var header = IdxHeader.read(channel);
+            final var size = header.size() + header.dimensions[0] * header.sampleBytes();
+            if (channel.size() < size)
+                throw new IOException("IDX file is truncated (" + channel.size() + " < " + size + "): " + path);
+            return header;
+        }
+    }
+
+    private static int[] checkDimensions(int[] expected, IdxHeader header, Path path) throws IOException {
+        final var dims = Arrays.copyOfRange(header.dimensions, 1, header.dimensions.length);
+        if (expected != null && !Arrays.equals(expected, dims))
+            throw new IOException("Sample dimensions of " + path + " differ from the other shards ("
+                    + Arrays.toString(dims) + " != " + Arrays.toString(expected) + ")");
+        return dims;
+    }
+
+    private static int sampleSize(int[] dims) {
+        return Arrays.stream(dims).reduce(1, Math::multiplyExact);
+    }
+
+    public static final class Shard {
+
+        private final Path input;
+        private final Path targets;
+        private final int count;
+
+        private Shard(Path input, Path targets, int count) {
+            this.input = Objects.requireNonNull(input);
+            this.targets = Objects.requireNonNull(targets);
+            this.count = count;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public Path getTargets() {
+            return targets;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public IdxFile openInput() throws IOException {
+            return IdxFile.open(input);
+        }
+
+        public IdxFile openTargets() throws IOException {
+            return IdxFile.open(targets);
+        }
+
+    }
+
+}
@@ -1,9 +1,12 @@
 package dev.m00nl1ght.nnLoom.examples;
 
 import dev.m00nl1ght.nnLoom.*;
+import dev.m00nl1ght.nnLoom.data.DatasetCache;
 import dev.m00nl1ght.nnLoom.mnist.MnistReader;
 
 import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
@@ -15,10 +18,21 @@ public class MnistExample {
     private static final int MNIST_SIZE_TR = 60000;
     private static final int MNIST_SIZE_TE = 10000;
 
-    private static final String RES_DATA_TR   = "mnist\\train-images.idx3-ubyte";
-    private static final String RES_LABELS_TR = "mnist\\train-labels.idx1-ubyte";
-    private static final String RES_DATA_TE   = "mnist\\t10k-images.idx3-ubyte";
-    private static final String RES_LABELS_TE = "mnist\\t10k-labels.idx1-ubyte";
+    private static final String RES_DATA_TR   = "train-images.idx3-ubyte";
+    private static final String RES_LABELS_TR = "train-labels.idx1-ubyte";
+    private static final String RES_DATA_TE   = "t10k-images.idx3-ubyte";
+    private static final String RES_LABELS_TE = "t10k-labels.idx1-ubyte";
+
+    /**
+     * Directory containing the mnist files, can be overridden with the nnloom.mnist system property.
+     * Each file may also be gzip-compressed, with the suffix .gz added to its name.
+     */
+    private static final Path DATA_DIR = Path.of(System.getProperty("nnloom.mnist", "src/main/resources/mnist"));
+
+    /**
+     * Directory for the decoded and normalised data, can be overridden with the nnloom.cache system property.
+     */
+    private static final Path CACHE_DIR = Path.of(System.getProperty("nnloom.cache", "build/cache"));
 
     private MnistExample() {}
 
@@ -34,11 +48,11 @@ public class MnistExample {
         network.init(new Random(initSeed));
 
         System.out.println("Loading MNIST ...");
-        final var cl = MnistExample.class.getClassLoader();
-        final var dataTr = MnistReader.readData(cl.getResourceAsStream(RES_DATA_TR));
-        final var labelsTr = MnistReader.readLabels(cl.getResourceAsStream(RES_LABELS_TR));
-        final var dataTe = MnistReader.readData(cl.getResourceAsStream(RES_DATA_TE));
-        final var labelsTe = MnistReader.readLabels(cl.getResourceAsStream(RES_LABELS_TE));
+        final var cache = new DatasetCache(CACHE_DIR);
+        final var dataTr = loadData(cache, "mnist-train-images", RES_DATA_TR);
+        final var labelsTr = loadLabels(cache, "mnist-train-labels", RES_LABELS_TR);
+        final var dataTe = loadData(cache, "mnist-test-images", RES_DATA_TE);
+        final var labelsTe = loadLabels(cache, "mnist-test-labels", RES_LABELS_TE);
 
         System.out.println("Evaluating network ...");
         eval(nnPlatform, network, dataTe, labelsTe, MNIST_SIZE_TE, 0);
@@ -55,6 +69,22 @@ public class MnistExample {
 
     }
 
+    private static FloatBuffer loadData(DatasetCache cache, String name, String file) {
+        final var path = locate(file);
+        return cache.get(name, "normalised /255", () -> MnistReader.readData(path), path);
+    }
+
+    private static FloatBuffer loadLabels(DatasetCache cache, String name, String file) {
+        final var path = locate(file);
+        return cache.get(name, "one-hot " + MNIST_CAT, () -> MnistReader.readLabels(path), path);
+    }
+
+    private static Path locate(String file) {
+        final var path = DATA_DIR.resolve(file);
+        final var compressed = DATA_DIR.resolve(file + ".gz");
+        return Files.exists(path) || !Files.exists(compressed) ? path : compressed;
+    }
+
     private static void eval(NNPlatform nnPlatform, NNetwork network, FloatBuffer data, FloatBuffer labels, int count, int incEx) {
         data.clear(); labels.clear();
 
@@ -1,9 +1,13 @@
 package dev.m00nl1ght.nnLoom.mnist;
 
+import dev.m00nl1ght.nnLoom.data.IdxFile;
+import dev.m00nl1ght.nnLoom.data.IdxReader;
+import dev.m00nl1ght.nnLoom.data.IdxType;
 import org.lwjgl.BufferUtils;
 
 import java.io.*;
 import java.nio.FloatBuffer;
+import java.nio.file.Path;
 import java.util.Objects;
 
 /**
@@ -12,29 +16,64 @@ import java.util.Objects;
  */
 public class MnistReader {
 
-    private MnistReader() {}
+    private static final int CHUNK_SIZE = 1024;
 
-    public static FloatBuffer readData(InputStream dataSource) {
+    private MnistReader() {}
 
-        Objects.requireNonNull(dataSource);
+    /**
+     * Reads the images from the given IDX file, which is memory-mapped instead of streamed.
+     * Gzip-compressed files, such as the official distribution, are decompressed into memory first.
+     */
+    public static FloatBuffer readData(Path path) {
+        try {
+            final var file = IdxFile.open(path);
+            checkType(file, IdxType.UByte, 3);
+            return file.readFloats(255f);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load mnist images from " + path, e);
+        }
+    }
 
+    /**
+     * Reads the labels from the given IDX file as one-hot vectors, see {@link #readData(Path)}.
+     */
+    public static FloatBuffer readLabels(Path path) {
         try {
+            final var file = IdxFile.open(path);
+            checkType(file, IdxType.UByte, 1);
+            final var labels = file.samples(0, file.getCount());
+            final var data = BufferUtils.createFloatBuffer(file.getCount() * 10);
+            for (int i = 0; i < file.getCount(); i++) {
+                data.put(i * 10 + Byte.toUnsignedInt(labels.get(i)), 1f);
+            }
+            return data;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load mnist labels from " + path, e);
+        }
+    }
+
+    private static void checkType(IdxFile file, IdxType type, int dimensions) throws IOException {
+        checkType(file.getType(), file.getDimensions(), type, dimensions, file.getPath().toString());
+    }
 
-            final var input = new DataInputStream(new BufferedInputStream(dataSource));
+    private static void checkType(IdxType actual, int[] actualDims, IdxType type, int dimensions, String source) throws IOException {
+        if (actual != type || actualDims.length != dimensions) {
+            throw new IOException("Unexpected IDX format (" + actual + " with "
+                    + actualDims.length + " dimensions) in " + source);
+        }
+    }
 
-            final var magicNumber = input.readInt();
-            final var itemCount = input.readInt();
-            final var rowCount = input.readInt();
-            final var colCount = input.readInt();
+    public static FloatBuffer readData(InputStream dataSource) {
 
-            final var size = itemCount * rowCount * colCount;
-            final var data = BufferUtils.createFloatBuffer(size);
+        Objects.requireNonNull(dataSource);
 
-            for (int i = 0; i < size; i++) {
-                data.put(input.readUnsignedByte() / 255f);
-            }
+        try (final var reader = IdxReader.open(new BufferedInputStream(dataSource))) {
+
+            checkType(reader.getType(), reader.getDimensions(), IdxType.UByte, 3, "stream");
+
+            final var data = BufferUtils.createFloatBuffer(reader.getCount() * reader.getSampleSize());
+            while (reader.readFloats(CHUNK_SIZE, 255f, data) > 0);
 
-            input.close();
             data.clear();
             return data;
 
@@ -48,29 +87,25 @@ public class MnistReader {
 
         Objects.requireNonNull(dataSource);
 
-        try {
-
-            final var input = new DataInputStream(new BufferedInputStream(dataSource));
+        try (final var reader = IdxReader.open(new BufferedInputStream(dataSource))) {
 
-            int magicNumber = input.readInt();
-            int labelCount = input.readInt();
+            checkType(reader.getType(), reader.getDimensions(), IdxType.UByte, 1, "stream");
 
-            final var data = BufferUtils.createFloatBuffer(labelCount * 10);
+            final var data = BufferUtils.createFloatBuffer(reader.getCount() * 10);
 
-            for (int i = 0; i < labelCount; i++) {
-                final var label = input.readUnsignedByte();
-                for (int j = 0; j < 10; j++) {
-                    data.put(j == label ? 1f : 0f);
+            var i = 0;
+            for (final var chunk = reader.chunks(CHUNK_SIZE); chunk.hasNext();) {
+                final var labels = chunk.next();
+                while (labels.hasRemaining()) {
+                    data.put(i++ * 10 + Byte.toUnsignedInt(labels.get()), 1f);
                 }
             }
 
-            input.close();
-            data.clear();
             return data;
 
         } catch (Exception e) {
-            throw new RuntimeException("Failed to load mnist images", e);
+            throw new RuntimeException("Failed to load mnist labels", e);
         }
 
     }
-}
\ No newline at end of file
+}
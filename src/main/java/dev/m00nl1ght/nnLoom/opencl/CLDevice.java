@@ -5,8 +5,13 @@ import org.lwjgl.opencl.CLCapabilities;
 import org.lwjgl.system.MemoryStack;
 
 import java.nio.IntBuffer;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static dev.m00nl1ght.nnLoom.opencl.CLUtil.*;
 import static org.lwjgl.opencl.CL10.*;
@@ -29,8 +34,53 @@ public final class CLDevice {
     }
 
     public static Set<CLDevice> getAvailableDevices(final int deviceType) {
+        return new LinkedHashSet<>(getDevices(Integer.toUnsignedLong(deviceType)));
+    }
+
+    /**
+     * Returns the devices of the given type of all platforms, in the order reported by the OpenCL runtime.
+     */
+    public static List<CLDevice> getDevices(CLDeviceType type) {
+        return getDevices(type.getBitfield());
+    }
+
+    /**
+     * Selects a device of the given type whose platform and device names contain the given strings, ignoring case.
+     * Null names match any device. Of the matching devices, the one at the given index is returned.
+     * If the type is null, devices of all types match, with GPUs ordered before all other devices.
+     * Throws an {@link IllegalStateException} listing all available devices if there is no such device.
+     */
+    public static CLDevice select(CLDeviceType type, String platformName, String deviceName, int index) {
+
+        if (index < 0) throw new IllegalArgumentException("Invalid device index: " + index);
 
-        final var collected = new HashSet<CLDevice>();
+        final var devices = type != null ? getDevices(type) : getDevices(CLDeviceType.All).stream()
+                .sorted(Comparator.comparing(d -> (d.getDeviceType() & CL_DEVICE_TYPE_GPU) == 0))
+                .toList();
+
+        final var matching = devices.stream()
+                .filter(d -> contains(d.getPlatformInfo(CL_PLATFORM_NAME), platformName))
+                .filter(d -> contains(d.getDeviceInfo(CL_DEVICE_NAME), deviceName))
+                .toList();
+
+        if (index < matching.size()) return matching.get(index);
+
+        final var available = getDevices(CLDeviceType.All).stream()
+                .map(d -> "\n  " + d)
+                .collect(Collectors.joining());
+
+        throw new IllegalStateException("No OpenCL device matches type " + type + ", platform " + platformName
+                + ", device " + deviceName + " and index " + index + ", available devices:" + (available.isEmpty() ? " none" : available));
+
+    }
+
+    private static boolean contains(String name, String part) {
+        return part == null || name.toLowerCase(Locale.ROOT).contains(part.toLowerCase(Locale.ROOT));
+    }
+
+    private static List<CLDevice> getDevices(long deviceType) {
+
+        final var collected = new ArrayList<CLDevice>();
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             final var platforms = getPlatforms(stack);
@@ -61,7 +111,7 @@ public final class CLDevice {
 
     }
 
-    private static long[] getDevices(MemoryStack stack, long platform, int deviceType) {
+    private static long[] getDevices(MemoryStack stack, long platform, long deviceType) {
 
         final var pi0 = stack.mallocInt(1);
         int errcode = clGetDeviceIDs(platform, deviceType, null, pi0);
@@ -101,4 +151,16 @@ public final class CLDevice {
         return getDeviceInfoStringUTF8(clDevice, param);
     }
 
+    /**
+     * Returns the type bitfield of this device, a combination of the CL_DEVICE_TYPE_* constants.
+     */
+    public long getDeviceType() {
+        return getDeviceInfoLong(clDevice, CL_DEVICE_TYPE);
+    }
+
+    @Override
+    public String toString() {
+        return getPlatformInfo(CL_PLATFORM_NAME) + " / " + getDeviceInfo(CL_DEVICE_NAME);
+    }
+
 }
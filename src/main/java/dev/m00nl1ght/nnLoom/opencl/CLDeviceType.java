@@ -0,0 +1,49 @@
+package dev.m00nl1ght.nnLoom.opencl;
+
+import static org.lwjgl.opencl.CL10.*;
+
+/**
+ * Types of OpenCL devices, used to filter the devices of the available platforms.
+ */
+public enum CLDeviceType {
+
+    /**
+     * The default device of each platform, as chosen by the OpenCL runtime.
+     */
+    Default(CL_DEVICE_TYPE_DEFAULT),
+
+    /**
+     * Host CPUs, as provided by runtimes such as PoCL or the vendor CPU runtimes.
+     */
+    CPU(CL_DEVICE_TYPE_CPU),
+
+    GPU(CL_DEVICE_TYPE_GPU),
+
+    /**
+     * Dedicated accelerators, such as FPGAs or DSPs.
+     */
+    Accelerator(CL_DEVICE_TYPE_ACCELERATOR),
+
+    All(CL_DEVICE_TYPE_ALL);
+
+    private final long bitfield;
+
+    CLDeviceType(int bitfield) {
+        this.bitfield = Integer.toUnsignedLong(bitfield);
+    }
+
+    /**
+     * Returns the type with the given name, ignoring case.
+     */
+    public static CLDeviceType of(String name) {
+        for (final var type : values()) {
+            if (type.name().equalsIgnoreCase(name)) return type;
+        }
+        throw new IllegalArgumentException("Invalid OpenCL device type: " + name);
+    }
+
+    public long getBitfield() {
+        return bitfield;
+    }
+
+}
@@ -0,0 +1,260 @@
+package dev.m00nl1ght.nnLoom.opencl;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static dev.m00nl1ght.nnLoom.opencl.CLUtil.*;
+import static org.lwjgl.opencl.CL10.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Cache for compiled OpenCL programs, stored as the binaries returned by the runtime in a local directory.
+ *
+ * Each entry is keyed by a SHA-256 hash of the platform, device and driver versions, the build options and
+ * the sources, so any change to them compiles the program from source again. If the runtime rejects a cached
+ * binary, or it fails to build, the program is compiled from source as well and the entry is replaced.
+ * Failing to write an entry is reported but does not fail the build.
+ */
+public final class CLProgramCache {
+
+    /**
+     * System property with the directory of the default cache, which is disabled if the property is empty.
+     */
+    public static final String DIRECTORY_PROPERTY = "nnloom.cl.cache";
+
+    private static final int MAGIC = 0x4C434E4E; // "NNCL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int HASH_OFFSET = 16;
+    private static final int HASH_SIZE = 32;
+
+    private final Path directory;
+
+    /**
+     * Creates a cache in the given directory, or a disabled cache that always compiles from source if it is null.
+     */
+    public CLProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a cache in the directory given by {@value #DIRECTORY_PROPERTY}, by default .cache/nnloom-cl
+     * in the home directory of the user. As cached binaries are run on the device, the directory must not be
+     * writable by other users, which is why a shared location such as the temporary directory is not used.
+     */
+    public static CLProgramCache getDefault() {
+        final var property = System.getProperty(DIRECTORY_PROPERTY);
+        if (property == null) return new CLProgramCache(Path.of(System.getProperty("user.home"), ".cache", "nnloom-cl"));
+        return new CLProgramCache(property.isEmpty() ? null : Path.of(property));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns a program for the device of the given context, built from the given sources with the given options,
+     * or loaded from the binary cached for them. The name is only used for the file name of the entry.
+     * Throws a {@link RuntimeException} with the build log if the sources fail to build.
+     */
+    public long build(CLContext context, String name, String options, ByteBuffer... sources) {
+
+        final var key = directory == null ? null : key(context.getDevice(), options, sources);
+        final var file = key == null ? null : directory.resolve(name + "-" + HexFormat.of().formatHex(key, 0, 8) + ".bin");
+
+        if (file != null && Files.isRegularFile(file)) {
+            final var program = loadBinary(context, file, key, options);
+            if (program != NULL) return program;
+        }
+
+        final var program = compile(context, options, sources);
+
+        if (file != null) {
+            try {
+                createDirectory(directory);
+                write(file, key, getBinary(program));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("[OpenCL] Failed to cache program binary in " + file + ": " + e);
+            }
+        }
+
+        return program;
+
+    }
+
+    private static long compile(CLContext context, String options, ByteBuffer[] sources) {
+
+        final var errBuffer = BufferUtils.createIntBuffer(1);
+        final var strings = BufferUtils.createPointerBuffer(sources.length);
+        final var lengths = BufferUtils.createPointerBuffer(sources.length);
+
+        for (int i = 0; i < sources.length; i++) {
+            strings.put(i, sources[i]);
+            lengths.put(i, sources[i].remaining());
+        }
+
+        final var program = clCreateProgramWithSource(context.get(), strings, lengths, errBuffer);
+        checkCLError(errBuffer);
+
+        final var errcode = clBuildProgram(program, context.dev(), options, null, NULL);
+        if (errcode != CL_SUCCESS) {
+            final var log = getProgramBuildInfoStringASCII(program, context.dev(), CL_PROGRAM_BUILD_LOG);
+            clReleaseProgram(program);
+            throw new RuntimeException(String.format("OpenCL error [%d] building program:%n%s", errcode, log));
+        }
+
+        return program;
+
+    }
+
+    /**
+     * Creates and builds a program from the cached binary, or returns NULL if the entry is invalid
+     * or the runtime does not accept the binary.
+     */
+    private static long loadBinary(CLContext context, Path file, byte[] key, String options) {
+
+        final ByteBuffer binary;
+        try {
+            binary = read(file, key);
+        } catch (IOException e) {
+            return NULL;
+        }
+
+        if (binary == null) return NULL;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+
+            final var errBuffer = stack.mallocInt(1);
+            final var status = stack.mallocInt(1);
+            final var program = clCreateProgramWithBinary(context.get(), stack.pointers(context.dev()),
+                    stack.pointers(binary.remaining()), stack.pointers(binary), status, errBuffer);
+
+            if (errBuffer.get(0) != CL_SUCCESS) return NULL;
+            if (status.get(0) == CL_SUCCESS && clBuildProgram(program, context.dev(), options, null, NULL) == CL_SUCCESS) {
+                return program;
+            }
+
+            clReleaseProgram(program);
+            return NULL;
+
+        }
+
+    }
+
+    private static ByteBuffer getBinary(long program) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+
+            final var count = stack.malloc(4);
+            checkCLError(clGetProgramInfo(program, CL_PROGRAM_NUM_DEVICES, count, null));
+            if (count.getInt(0) != 1) throw new IllegalStateException("Program built for " + count.getInt(0) + " devices");
+
+            final var size = stack.mallocPointer(1);
+            checkCLError(clGetProgramInfo(program, CL_PROGRAM_BINARY_SIZES, size, null));
+
+            final var binary = BufferUtils.createByteBuffer((int) size.get(0));
+            checkCLError(clGetProgramInfo(program, CL_PROGRAM_BINARIES, stack.pointers(binary), null));
+            return binary;
+
+        }
+    }
+
+    private static byte[] key(CLDevice device, String options, ByteBuffer[] sources) {
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final var info = String.join("\0", String.valueOf(VERSION),
+                device.getPlatformInfo(CL_PLATFORM_NAME), device.getPlatformInfo(CL_PLATFORM_VERSION),
+                device.getDeviceInfo(CL_DEVICE_NAME), device.getDeviceInfo(CL_DEVICE_VENDOR),
+                device.getDeviceInfo(CL_DEVICE_VERSION), device.getDeviceInfo(CL_DRIVER_VERSION), options);
+
+        digest.update(info.getBytes(StandardCharsets.UTF_8));
+        for (final var source : sources) {
+            digest.update(ByteBuffer.allocate(8).putLong(0, source.remaining()));
+            digest.update(source.duplicate());
+        }
+
+        return digest.digest();
+
+    }
+
+    /**
+     * Reads the binary of the given entry, or returns null if it is incomplete or does not match the key.
+     */
+    private static ByteBuffer read(Path file, byte[] key) throws IOException {
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            if (channel.size() < HEADER_SIZE) return null;
+            final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+
+            final var hash = new byte[HASH_SIZE];
+            header.get(HASH_OFFSET, hash);
+            final var size = header.getLong(8);
+
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || !Arrays.equals(hash, key)) return null;
+            if (size <= 0 || HEADER_SIZE + size != channel.size() || size > Integer.MAX_VALUE) return null;
+
+            final var binary = BufferUtils.createByteBuffer((int) size);
+            while (binary.hasRemaining() && channel.read(binary) >= 0);
+            return binary.flip();
+
+        }
+    }
+
+    /**
+     * Creates the directory if it does not exist yet, readable and writable by the owner only where supported.
+     */
+    private static void createDirectory(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) return;
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Writes the entry to a new temporary file first, which is then moved into place, so that processes
+     * filling the same entry at once do not interfere and readers never see a partial entry.
+     */
+    private static void write(Path file, byte[] key, ByteBuffer binary) throws IOException {
+
+        final var temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+
+            try (final var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, binary.remaining()).put(HASH_OFFSET, key);
+                while (header.hasRemaining()) channel.write(header);
+                while (binary.hasRemaining()) channel.write(binary);
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+// Activation functions for the modes of ActivationPrecision, selected at runtime by its ordinal.
+// This file is built together with the platform kernels, which define ACT_TABLE_SIZE and
+// ACT_TABLE_RANGE as build options. See ActivationPrecision for the maximum errors.
+
+#define PRECISION_EXACT     0
+#define PRECISION_SINGLE    1
+#define PRECISION_RATIONAL  2
+#define PRECISION_TABLE     3
+
+#define RATIONAL_LIMIT      6.25f
+
+float tanhRational(float v)
+{
+    const float x = clamp(v, -RATIONAL_LIMIT, RATIONAL_LIMIT);
+    const float x2 = x * x;
+    const float p = x * (34459425.0f + x2 * (4729725.0f + x2 * (135135.0f + x2 * (990.0f + x2))));
+    const float q = 34459425.0f + x2 * (16216200.0f + x2 * (945945.0f + x2 * (13860.0f + x2 * 45.0f)));
+    return clamp(p / q, -1.0f, 1.0f);
+}
+
+float tanhTable(float v, constant float* table)
+{
+    const float u = (clamp(v, -ACT_TABLE_RANGE, ACT_TABLE_RANGE) + ACT_TABLE_RANGE) * (ACT_TABLE_SIZE / (2.0f * ACT_TABLE_RANGE));
+    const int i = min((int) u, ACT_TABLE_SIZE - 1);
+    const float a = table[i];
+    return a + (table[i + 1] - a) * (u - i);
+}
+
+float activateSigmoid(float v, int precision, constant float* table)
+{
+    switch (precision) {
+        case PRECISION_SINGLE: return native_recip(1.0f + native_exp(-v));
+        case PRECISION_RATIONAL: return 0.5f + 0.5f * tanhRational(0.5f * v);
+        case PRECISION_TABLE: return 0.5f + 0.5f * tanhTable(0.5f * v, table);
+        default: return ( 1 / ( 1 + exp( - v ) ) );
+    }
+}
+
+float activateTanh(float v, int precision, constant float* table)
+{
+    switch (precision) {
+        case PRECISION_SINGLE: return 1.0f - 2.0f * native_recip(native_exp(2.0f * v) + 1.0f);
+        case PRECISION_RATIONAL: return tanhRational(v);
+        case PRECISION_TABLE: return tanhTable(v, table);
+        default: return tanh(v);
+    }
+}
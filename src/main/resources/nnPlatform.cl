@@ -16,7 +16,9 @@ kernel void forwardSigmoid
     global const float* cBiases,        // biases of current layer
     const int pSize,                    // number of nodes in previous layer
     const int pOffset,                  // offset for nodes in previous layer
-    global const float* pVals           // output values from previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable            // table for ActivationPrecision.Table
 )
 {
     const int i = get_global_id(0);
@@ -26,7 +28,7 @@ kernel void forwardSigmoid
         v += pVals[p + pOffset] * cWeights[i * pSize + p];
     }
 
-    cVals[i] = ( 1 / ( 1 + exp( - v ) ) );
+    cVals[i] = activateSigmoid(v, precision, actTable);
 }
 
 kernel void forwardTanh
@@ -36,7 +38,9 @@ kernel void forwardTanh
     global const float* cBiases,        // biases of current layer
     const int pSize,                    // number of nodes in previous layer
     const int pOffset,                  // offset for nodes in previous layer
-    global const float* pVals           // output values from previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable            // table for ActivationPrecision.Table
 )
 {
     const int i = get_global_id(0);
@@ -46,7 +50,7 @@ kernel void forwardTanh
         v += pVals[p + pOffset] * cWeights[i * pSize + p];
     }
 
-    cVals[i] = tanh(v);
+    cVals[i] = activateTanh(v, precision, actTable);
 }
 
 kernel void backHSigmoid
@@ -70,7 +74,7 @@ kernel void backHSigmoid
 
     float error = 0;
     for (int n = 0; n < nSize; n++) {
-        error += nDeltas[n] * nWeights[n * nSize + i];
+        error += nDeltas[n] * nWeights[n * cSize + i];
     }
 
     const float delta = error * ( v * ( 1 - v ) );
@@ -104,7 +108,7 @@ kernel void backHTanh
 
     float error = 0;
     for (int n = 0; n < nSize; n++) {
-        error += nDeltas[n] * nWeights[n * nSize + i];
+        error += nDeltas[n] * nWeights[n * cSize + i];
     }
 
     const float delta = error * ( 1 - v * v );
@@ -176,3 +180,16 @@ kernel void backOTanh
     }
 
 }
+
+kernel void dequantize
+(
+    global float* dst,                  // dequantised values
+    global const uchar* src,            // quantised values
+    const int srcOffset,                // offset of the first value in src
+    const float scale,                  // multiplier for quantised values
+    const float offset                  // offset added after scaling
+)
+{
+    const int i = get_global_id(0);
+    dst[i] = src[srcOffset + i] * scale + offset;
+}
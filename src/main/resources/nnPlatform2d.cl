@@ -17,7 +17,9 @@ kernel void forwardSigmoid
     global const float* cBiases,        // biases of current layer
     const int pSize,                    // number of nodes in previous layer
     const int pOffset,                  // offset for nodes in previous layer
-    global const float* pVals           // output values from previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable            // table for ActivationPrecision.Table
 )
 {
     const int i = get_global_id(0);
@@ -28,7 +30,7 @@ kernel void forwardSigmoid
         v += pVals[p + pOffset + j * pSize] * cWeights[i * pSize + p];
     }
 
-    cVals[i + j * cSize] = ( 1 / ( 1 + exp( - v ) ) );
+    cVals[i + j * cSize] = activateSigmoid(v, precision, actTable);
 }
 
 kernel void forwardTanh
@@ -39,7 +41,9 @@ kernel void forwardTanh
     global const float* cBiases,        // biases of current layer
     const int pSize,                    // number of nodes in previous layer
     const int pOffset,                  // offset for nodes in previous layer
-    global const float* pVals           // output values from previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable            // table for ActivationPrecision.Table
 )
 {
     const int i = get_global_id(0);
@@ -50,7 +54,7 @@ kernel void forwardTanh
         v += pVals[p + pOffset + j * pSize] * cWeights[i * pSize + p];
     }
 
-    cVals[i + j * cSize] = tanh(v);
+    cVals[i + j * cSize] = activateTanh(v, precision, actTable);
 }
 
 kernel void backHSigmoid
@@ -70,7 +74,7 @@ kernel void backHSigmoid
 
     float error = 0;
     for (int n = 0; n < nSize; n++) {
-        error += nDeltas[n + j * nSize] * nWeights[n * nSize + i];
+        error += nDeltas[n + j * nSize] * nWeights[n * cSize + i];
     }
 
     cDeltas[cj] = error * ( v * ( 1 - v ) );
@@ -93,7 +97,7 @@ kernel void backHTanh
 
     float error = 0;
     for (int n = 0; n < nSize; n++) {
-        error += nDeltas[n + j * nSize] * nWeights[n * nSize + i];
+        error += nDeltas[n + j * nSize] * nWeights[n * cSize + i];
     }
 
     cDeltas[cj] = error * ( 1 - v * v );
@@ -138,26 +142,309 @@ kernel void backOTanh
 kernel void applyDeltas
 (
     const int cSize,                    // number of nodes in current layer
-    global const float* cVals,          // values for current layer
     global const float* cDeltas,        // delta values for current layer
     global float* cWeights,             // weights for current layer
     global float* cBiases,              // biases for current layer
     const int pSize,                    // number of nodes in previous layer
     const int pOffset,                  // offset for nodes in previous layer
     global const float* pVals,          // values for previous layer
-    const float lr                      // multiplier for weight changes
+    const float lr,                     // multiplier for weight changes
+    const int bSize                     // number of samples in the batch
 )
 {
+    const int p = get_global_id(0);
+    const int i = get_global_id(1);
+
+    float dw = 0;
+    float db = 0;
+    for (int j = 0; j < bSize; j++) {
+        const float delta = cDeltas[i + j * cSize];
+        dw += delta * pVals[p + pOffset + j * pSize];
+        db += delta;
+    }
+
+    cWeights[i * pSize + p] += lr * dw;
+    if (p == 0) cBiases[i] += lr * db;
+}
+
+// Tiled variants of the kernels above, which run in work groups of TILE_SIZE x TILE_SIZE items.
+// Each group computes one tile of the result, staging the tiles of both operands it needs in local
+// memory, so every value is read from global memory once per group instead of once per work item.
+// The global sizes are rounded up to multiples of TILE_SIZE, items outside the result only help loading.
+// The rows of the tiles in local memory are padded by one to avoid bank conflicts on column access.
+
+// Computes the sum of a[r][k] * b[c][k] over k < depth for row r = rowBase + lx and column c = colBase + ly,
+// with a[r][k] = a[r * aStride + k] and b[c][k] = b[c * bStride + k]. Both are loaded along k, which is
+// contiguous in memory, and both tiles keep that row-major layout in local memory, aTile[ly][lx] holding
+// a[rowBase + ly][k0 + lx]. Each item then reads row lx of aTile, a column access across the items of a
+// row of the group, which the padding of the rows spreads over distinct banks.
+float dotTiled
+(
+    const int rows, global const float* a, const int aStride,
+    const int cols, global const float* b, const int bStride,
+    const int depth, const int rowBase, const int colBase,
+    local float (*aTile)[TILE_SIZE + 1],
+    local float (*bTile)[TILE_SIZE + 1]
+)
+{
+    const int lx = get_local_id(0);
+    const int ly = get_local_id(1);
+
+    float sum = 0;
+    for (int k0 = 0; k0 < depth; k0 += TILE_SIZE) {
+
+        const int k = k0 + lx;
+        const int ar = rowBase + ly;
+        const int bc = colBase + ly;
+        aTile[ly][lx] = ar < rows && k < depth ? a[ar * aStride + k] : 0;
+        bTile[ly][lx] = bc < cols && k < depth ? b[bc * bStride + k] : 0;
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+        for (int t = 0; t < TILE_SIZE; t++) {
+            sum += aTile[lx][t] * bTile[ly][t];
+        }
+
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+    }
+
+    return sum;
+}
+
+kernel void forwardTiledSigmoid
+(
+    const int cSize,                    // number of nodes in current layer
+    global float* cVals,                // output values of current layer
+    global const float* cWeights,       // weights of current layer
+    global const float* cBiases,        // biases of current layer
+    const int pSize,                    // number of nodes in previous layer
+    const int pOffset,                  // offset for nodes in previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable,           // table for ActivationPrecision.Table
+    const int bSize                     // number of samples in the batch
+)
+{
+    local float wTile[TILE_SIZE][TILE_SIZE + 1];
+    local float pTile[TILE_SIZE][TILE_SIZE + 1];
+
     const int i = get_global_id(0);
     const int j = get_global_id(1);
-    const int cj = i + j * cSize;
-    const float v = cVals[cj];
-    const float delta = cDeltas[cj];
+    const int i0 = get_group_id(0) * TILE_SIZE;
+    const int j0 = get_group_id(1) * TILE_SIZE;
 
-    cBiases[i] += delta * lr;
+    const float v = dotTiled(cSize, cWeights, pSize, bSize, pVals + pOffset, pSize, pSize, i0, j0, wTile, pTile);
+
+    if (i < cSize && j < bSize) cVals[i + j * cSize] = activateSigmoid(v + cBiases[i], precision, actTable);
+}
+
+kernel void forwardTiledTanh
+(
+    const int cSize,                    // number of nodes in current layer
+    global float* cVals,                // output values of current layer
+    global const float* cWeights,       // weights of current layer
+    global const float* cBiases,        // biases of current layer
+    const int pSize,                    // number of nodes in previous layer
+    const int pOffset,                  // offset for nodes in previous layer
+    global const float* pVals,          // output values from previous layer
+    const int precision,                // ordinal of the ActivationPrecision to use
+    constant float* actTable,           // table for ActivationPrecision.Table
+    const int bSize                     // number of samples in the batch
+)
+{
+    local float wTile[TILE_SIZE][TILE_SIZE + 1];
+    local float pTile[TILE_SIZE][TILE_SIZE + 1];
+
+    const int i = get_global_id(0);
+    const int j = get_global_id(1);
+    const int i0 = get_group_id(0) * TILE_SIZE;
+    const int j0 = get_group_id(1) * TILE_SIZE;
+
+    const float v = dotTiled(cSize, cWeights, pSize, bSize, pVals + pOffset, pSize, pSize, i0, j0, wTile, pTile);
+
+    if (i < cSize && j < bSize) cVals[i + j * cSize] = activateTanh(v + cBiases[i], precision, actTable);
+}
+
+// Computes the error of node i = i0 + lx for sample j = j0 + ly, the sum of nDeltas[j][n] * nWeights[n][i]
+// over all nodes n of the next layer. The weights are read along i, which is contiguous in memory.
+float errorTiled
+(
+    const int cSize, const int nSize, const int bSize,
+    global const float* nDeltas, global const float* nWeights,
+    const int i0, const int j0,
+    local float (*wTile)[TILE_SIZE + 1],
+    local float (*dTile)[TILE_SIZE + 1]
+)
+{
+    const int lx = get_local_id(0);
+    const int ly = get_local_id(1);
+    const int i = i0 + lx;
+    const int jl = j0 + ly;
+
+    float error = 0;
+    for (int n0 = 0; n0 < nSize; n0 += TILE_SIZE) {
+
+        const int nw = n0 + ly;
+        const int nd = n0 + lx;
+        wTile[ly][lx] = nw < nSize && i < cSize ? nWeights[nw * cSize + i] : 0;
+        dTile[ly][lx] = nd < nSize && jl < bSize ? nDeltas[nd + jl * nSize] : 0;
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+        for (int t = 0; t < TILE_SIZE; t++) {
+            error += dTile[ly][t] * wTile[t][lx];
+        }
+
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+    }
+
+    return error;
+}
+
+kernel void backHTiledSigmoid
+(
+    const int cSize,                    // number of nodes in current layer
+    global const float* cVals,          // values for current layer
+    global float* cDeltas,              // delta values for current layer
+    const int nSize,                    // number of nodes in next layer
+    global const float* nDeltas,        // delta values for next layer
+    global const float* nWeights,       // weights for next layer
+    const int bSize                     // number of samples in the batch
+)
+{
+    local float wTile[TILE_SIZE][TILE_SIZE + 1];
+    local float dTile[TILE_SIZE][TILE_SIZE + 1];
+
+    const int i = get_global_id(0);
+    const int j = get_global_id(1);
+    const int i0 = get_group_id(0) * TILE_SIZE;
+    const int j0 = get_group_id(1) * TILE_SIZE;
+
+    const float error = errorTiled(cSize, nSize, bSize, nDeltas, nWeights, i0, j0, wTile, dTile);
+
+    if (i < cSize && j < bSize) {
+        const int cj = i + j * cSize;
+        const float v = cVals[cj];
+        cDeltas[cj] = error * ( v * ( 1 - v ) );
+    }
+}
+
+kernel void backHTiledTanh
+(
+    const int cSize,                    // number of nodes in current layer
+    global const float* cVals,          // values for current layer
+    global float* cDeltas,              // delta values for current layer
+    const int nSize,                    // number of nodes in next layer
+    global const float* nDeltas,        // delta values for next layer
+    global const float* nWeights,       // weights for next layer
+    const int bSize                     // number of samples in the batch
+)
+{
+    local float wTile[TILE_SIZE][TILE_SIZE + 1];
+    local float dTile[TILE_SIZE][TILE_SIZE + 1];
+
+    const int i = get_global_id(0);
+    const int j = get_global_id(1);
+    const int i0 = get_group_id(0) * TILE_SIZE;
+    const int j0 = get_group_id(1) * TILE_SIZE;
+
+    const float error = errorTiled(cSize, nSize, bSize, nDeltas, nWeights, i0, j0, wTile, dTile);
+
+    if (i < cSize && j < bSize) {
+        const int cj = i + j * cSize;
+        const float v = cVals[cj];
+        cDeltas[cj] = error * ( 1 - v * v );
+    }
+}
+
+// Accumulates the changes of the weights for node i = i0 + ly and previous node p = p0 + lx over all samples
+// of the batch, which both the deltas and the previous values are read along. The groups in the first column
+// also accumulate the changes of the biases.
+kernel void applyDeltasTiled
+(
+    const int cSize,                    // number of nodes in current layer
+    global const float* cDeltas,        // delta values for current layer
+    global float* cWeights,             // weights for current layer
+    global float* cBiases,              // biases for current layer
+    const int pSize,                    // number of nodes in previous layer
+    const int pOffset,                  // offset for nodes in previous layer
+    global const float* pVals,          // values for previous layer
+    const float lr,                     // multiplier for weight changes
+    const int bSize                     // number of samples in the batch
+)
+{
+    local float pTile[TILE_SIZE][TILE_SIZE + 1];
+    local float dTile[TILE_SIZE][TILE_SIZE + 1];
+
+    const int lx = get_local_id(0);
+    const int ly = get_local_id(1);
+    const int p0 = get_group_id(0) * TILE_SIZE;
+    const int i0 = get_group_id(1) * TILE_SIZE;
+    const int p = p0 + lx;
+    const int i = i0 + ly;
+
+    float dw = 0;
+    float db = 0;
+    for (int j0 = 0; j0 < bSize; j0 += TILE_SIZE) {
+
+        const int j = j0 + ly;
+        pTile[ly][lx] = j < bSize && p < pSize ? pVals[p + pOffset + j * pSize] : 0;
+        dTile[ly][lx] = j < bSize && i0 + lx < cSize ? cDeltas[i0 + lx + j * cSize] : 0;
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+        for (int t = 0; t < TILE_SIZE; t++) {
+            const float delta = dTile[t][ly];
+            dw += delta * pTile[t][lx];
+            db += delta;
+        }
+
+        barrier(CLK_LOCAL_MEM_FENCE);
 
-    for (int p = 0; p < pSize; p++) {
-        const float dw = lr * delta * pVals[p + pOffset + j * pSize];
-        cWeights[i * pSize + p] += dw;
     }
+
+    if (i < cSize && p < pSize) cWeights[i * pSize + p] += lr * dw;
+    if (i < cSize && p == 0) cBiases[i] += lr * db;
+}
+
+kernel void dequantize
+(
+    global float* dst,                  // dequantised values
+    global const uchar* src,            // quantised values
+    const int srcOffset,                // offset of the first value in src
+    const float scale,                  // multiplier for quantised values
+    const float offset                  // offset added after scaling
+)
+{
+    const int i = get_global_id(0);
+    dst[i] = src[srcOffset + i] * scale + offset;
+}
+
+kernel void gather
+(
+    global float* dst,                  // samples in gathered order
+    global const float* src,            // samples in stored order
+    global const int* order,            // indices of the samples to gather
+    const int orderOffset,              // offset of the first index in order
+    const int size                      // values per sample
+)
+{
+    const int i = get_global_id(0);
+    const int j = get_global_id(1);
+    dst[i + j * size] = src[i + order[orderOffset + j] * size];
+}
+
+kernel void gatherDequantize
+(
+    global float* dst,                  // dequantised samples in gathered order
+    global const uchar* src,            // quantised samples in stored order
+    global const int* order,            // indices of the samples to gather
+    const int orderOffset,              // offset of the first index in order
+    const int size,                     // values per sample
+    const float scale,                  // multiplier for quantised values
+    const float offset                  // offset added after scaling
+)
+{
+    const int i = get_global_id(0);
+    const int j = get_global_id(1);
+    dst[i + j * size] = src[i + order[orderOffset + j] * size] * scale + offset;
 }